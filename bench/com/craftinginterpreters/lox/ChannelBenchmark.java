@@ -0,0 +1,98 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/*
+ * Channel throughput in messages/second, for an unbounded and a small bounded channel. First straight
+ * from Java with one producer and one consumer thread, which is the ceiling for the channel itself, then
+ * the same producer and consumer written in Lox and run with spawn(), which is what scripts actually see.
+ *
+ * Usage: ChannelBenchmark [--messages <count>]
+ */
+public class ChannelBenchmark {
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 5;
+
+    private static final String SCRIPT =
+        "fun produce() {\n" +
+        "  for (var i = 0; i < messages; i = i + 1) ch.send(i);\n" +
+        "  ch.close();\n" +
+        "}\n" +
+        "spawn(produce);\n" +
+        "var received = 0;\n" +
+        "while (ch.receive() != nil) received = received + 1;\n";
+
+    public static void main(String[] args) throws InterruptedException {
+        int count = 1_000_000;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--messages")) {
+                count = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Usage: ChannelBenchmark [--messages <count>]");
+                System.exit(64);
+            }
+        }
+        int messages = count;
+
+        for (int capacity : new int[] { 0, 16 }) {
+            String name = capacity == 0 ? "unbounded" : "capacity " + capacity;
+            report("java, " + name, messages, measure(() -> runJava(capacity, messages)));
+        }
+
+        // The Lox loop is a lot slower than the channel, so fewer messages keep the runs short
+        int loxMessages = Math.max(1, messages / 10);
+        for (int capacity : new int[] { 0, 16 }) {
+            String name = capacity == 0 ? "unbounded" : "capacity " + capacity;
+            report("lox, " + name, loxMessages, measure(() -> runLox(capacity, loxMessages)));
+        }
+    }
+
+    private interface Run {
+        void run() throws InterruptedException;
+    }
+
+    private static long[] measure(Run run) throws InterruptedException {
+        for (int i = 0; i < WARMUP_RUNS; i++) run.run();
+
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            long elapsed = System.nanoTime() - start;
+
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+        return new long[] { total / MEASURED_RUNS, best };
+    }
+
+    private static void report(String name, int messages, long[] times) {
+        System.out.printf("%-22s mean: %6.2f M msgs/s  best: %6.2f M msgs/s%n", name,
+            messages / (double)times[0] * 1000.0, messages / (double)times[1] * 1000.0);
+    }
+
+    private static void runJava(int capacity, int messages) throws InterruptedException {
+        LoxChannel channel = new LoxChannel(capacity);
+        Thread producer = new Thread(() -> {
+            Double value = 1.0;  // Boxed once, like a Lox number that's already on the heap
+            for (int i = 0; i < messages; i++) channel.send(value);
+            channel.close();
+        });
+        producer.start();
+
+        int received = 0;
+        while (channel.receive() != null) received++;
+        producer.join();
+
+        if (received != messages) throw new AssertionError("Lost messages: " + received);
+    }
+
+    private static void runLox(int capacity, int messages) {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        LoxContext context = new LoxContext(new PrintStream(new ByteArrayOutputStream()), new PrintStream(err));
+        context.run("var messages = " + messages + ";\nvar ch = Channel(" + (capacity == 0 ? "" : capacity) + ");\n" + SCRIPT);
+        if (context.hadError() || context.hadRuntimeError()) throw new AssertionError(err.toString());
+    }
+}
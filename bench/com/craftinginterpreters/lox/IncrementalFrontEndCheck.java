@@ -0,0 +1,218 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/*
+ * Checks that IncrementalFrontEnd ends up with the same result as starting over. A few hand-written edit
+ * sessions (the ones that have gone wrong before) and a random one per script replay their edits, and
+ * after every edit the statements, the locals and the diagnostics are compared with those of a new
+ * IncrementalFrontEnd on the edited source, and whenever the source scans and parses cleanly, with
+ * those of a plain scan, parse and resolve of the whole file. Trees are compared by their AstSerializer
+ * bytes, which include every token's line and every scope distance. It also checks that the trees
+ * handed out before an edit are still exactly what they were.
+ *
+ * Usage: IncrementalFrontEndCheck [--edits <count>] [--seed <number>] [<script or directory>...]
+ *
+ * Prints every mismatch and exits with 1 if there were any.
+ */
+public class IncrementalFrontEndCheck {
+    private static final String[] SNIPPETS = {
+        "\n", "\n\n", " ", "}", "{", ";", "else ", "else { print 3; }", "// note\n", "\"", "var x = 1;\n",
+    };
+
+    private int checked = 0;
+    private int failed = 0;
+
+    // What statements() returned last time, and its bytes back then
+    private List<Stmt> previous = null;
+    private Map<Expr, Integer> previousLocals = null;
+    private byte[] previousBytes = null;
+
+    public static void main(String[] args) throws IOException {
+        int edits = 500;
+        long seed = 1;
+        List<Path> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--edits": edits = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default:
+                    if (args[i].startsWith("--")) {
+                        System.err.println("Usage: IncrementalFrontEndCheck [--edits <count>] [--seed <number>] " +
+                            "[<script or directory>...]");
+                        System.exit(64);
+                    }
+                    paths.add(Paths.get(args[i]));
+            }
+        }
+        if (paths.isEmpty()) paths.add(Paths.get("bench", "corpus"));
+
+        IncrementalFrontEndCheck check = new IncrementalFrontEndCheck();
+
+        // An else typed at the start of the line after an if, so the edit is in the next statement's
+        // leading whitespace, all at once and a character at a time
+        String ifThen = "if (true) { print 1; }\nprint 2;\n";
+        int offset = ifThen.indexOf("print 2");
+        check.session("else after if", ifThen, new Edit(offset, 0, "else { print 3; }"));
+        check.session("else typed after if", ifThen, typing(offset, "else { print 3; }"));
+        String commented = "if (false) { print 1; }\n// then\n\nprint 2;\n";
+        check.session("else after comment", commented, typing(commented.indexOf("print 2"), "else "));
+
+        // Lines added and removed above statements that are then reused
+        String lines = "var a = 1;\nfun f() { var b = a; return b; }\nprint f();\nprint c;\n";
+        check.session("lines", lines, new Edit(0, 0, "\n"), new Edit(0, 0, "\n\n"), new Edit(12, 1, ""),
+            new Edit(0, 3, ""), new Edit(20, 0, "\n// x\n"));
+
+        for (Path script : LoxBenchmark.scripts(paths)) {
+            String source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+            check.random(script.toString(), source, new Random(seed), edits);
+        }
+
+        System.out.println(check.checked + " edits checked, " + check.failed + " mismatches");
+        System.exit(check.failed > 0 ? 1 : 0);
+    }
+
+    // Replace length characters at offset with text, like IncrementalFrontEnd.edit()
+    private static class Edit {
+        final int offset;
+        final int length;
+        final String text;
+
+        Edit(int offset, int length, String text) {
+            this.offset = offset;
+            this.length = length;
+            this.text = text;
+        }
+    }
+
+    // Typing text at offset, one character per edit
+    private static Edit[] typing(int offset, String text) {
+        Edit[] edits = new Edit[text.length()];
+        for (int i = 0; i < text.length(); i++) {
+            edits[i] = new Edit(offset + i, 0, text.substring(i, i + 1));
+        }
+        return edits;
+    }
+
+    private void session(String name, String source, Edit... edits) {
+        IncrementalFrontEnd incremental = new IncrementalFrontEnd(source);
+        compare(name + ", before any edit", incremental);
+        for (int i = 0; i < edits.length; i++) {
+            incremental.edit(edits[i].offset, edits[i].length, edits[i].text);
+            compare(name + ", edit " + (i + 1), incremental);
+        }
+    }
+
+    // Random insertions, deletions and undos of deletions, so the source keeps coming back to valid code
+    private void random(String name, String source, Random random, int count) {
+        IncrementalFrontEnd incremental = new IncrementalFrontEnd(source);
+        compare(name + ", before any edit", incremental);
+        for (int i = 0; i < count; i++) {
+            String current = incremental.source();
+            int offset = random.nextInt(current.length() + 1);
+            String description;
+            switch (random.nextInt(3)) {
+                case 0: {
+                    String text = SNIPPETS[random.nextInt(SNIPPETS.length)];
+                    incremental.edit(offset, 0, text);
+                    description = "insert " + quote(text) + " at " + offset;
+                    break;
+                }
+                case 1: {
+                    int length = Math.min(random.nextInt(20), current.length() - offset);
+                    incremental.edit(offset, length, "");
+                    description = "delete " + length + " at " + offset;
+                    break;
+                }
+                default: {
+                    int length = Math.min(random.nextInt(20), current.length() - offset);
+                    String removed = current.substring(offset, offset + length);
+                    incremental.edit(offset, length, "");
+                    compare(name + ", edit " + (i + 1) + " (delete " + length + " at " + offset + ")", incremental);
+                    incremental.edit(offset, 0, removed);
+                    description = "undo delete " + length + " at " + offset;
+                }
+            }
+            compare(name + ", edit " + (i + 1) + " (" + description + ")", incremental);
+        }
+    }
+
+    private void compare(String what, IncrementalFrontEnd incremental) {
+        checked++;
+        String source = incremental.source();
+        List<Stmt> current = incremental.statements();
+        if (previous != null && !Arrays.equals(previousBytes, serialize(previous, previousLocals))) {
+            fail(what, "statements from before the edit have changed", source);
+        }
+
+        byte[] statements = serialize(current, incremental.locals());
+        List<String> diagnostics = strings(incremental.diagnostics());
+        previous = current;
+        previousLocals = new HashMap<>(incremental.locals());
+        previousBytes = statements;
+
+        IncrementalFrontEnd fresh = new IncrementalFrontEnd(source);
+        if (!Arrays.equals(statements, serialize(fresh.statements(), fresh.locals()))) {
+            fail(what, "statements differ from a new IncrementalFrontEnd's", source);
+        } else if (!diagnostics.equals(strings(fresh.diagnostics()))) {
+            fail(what, "diagnostics " + diagnostics + " differ from a new IncrementalFrontEnd's " +
+                strings(fresh.diagnostics()), source);
+        }
+
+        // A full parse only agrees on clean code: the parser recovers from errors across statements, and
+        // Lox.run() doesn't resolve anything once there's a syntax error
+        List<Diagnostic> full = new ArrayList<>();
+        List<Token> tokens = new Scanner(source, full::add).scanTokens();
+        ParseResult parsed = new Parser(tokens, null).parseWithDiagnostics();
+        if (!full.isEmpty() || parsed.hasErrors()) return;
+
+        Map<Expr, Integer> locals = new HashMap<>();
+        new Resolver(locals, full::add).resolve(parsed.statements);
+        if (!Arrays.equals(statements, serialize(parsed.statements, locals))) {
+            fail(what, "statements differ from a full parse's", source);
+        } else if (!diagnostics.equals(strings(full))) {
+            fail(what, "diagnostics " + diagnostics + " differ from a full parse's " + strings(full), source);
+        }
+    }
+
+    private void fail(String what, String problem, String source) {
+        failed++;
+        System.out.println(what + ": " + problem);
+        if (source.length() < 200) System.out.println("  source: " + quote(source));
+    }
+
+    private static byte[] serialize(List<Stmt> statements, Map<Expr, Integer> locals) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            new AstSerializer.Writer(new DataOutputStream(bytes), locals).writeStatements(statements);
+        } catch (IOException e) {
+            throw new AssertionError(e);  // Can't happen writing to memory
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<String> strings(List<Diagnostic> diagnostics) {
+        List<String> strings = new ArrayList<>();
+        for (Diagnostic diagnostic : diagnostics) {
+            strings.add(diagnostic.toString());
+        }
+        return strings;
+    }
+
+    private static String quote(String text) {
+        return "\"" + text.replace("\n", "\\n") + "\"";
+    }
+}
@@ -0,0 +1,210 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Just enough JSON for the benchmark baseline, so the benchmarks don't need a library on the class path.
+ * Objects are Maps (in file order), arrays are Lists, numbers are Doubles when read and any Number when
+ * written. write() indents, one value per line, so a changed baseline diffs cleanly.
+ */
+class Json {
+    private final String text;
+    private int current = 0;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    static Object read(String text) {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipWhitespace();
+        if (json.current != text.length()) throw json.error("Unexpected text after the value");
+        return value;
+    }
+
+    static String write(Object value) {
+        StringBuilder out = new StringBuilder();
+        write(value, out, "");
+        return out.append('\n').toString();
+    }
+
+    private Object value() {
+        skipWhitespace();
+        if (current == text.length()) throw error("Unexpected end of input");
+
+        char c = text.charAt(current);
+        if (c == '{') return object();
+        if (c == '[') return array();
+        if (c == '"') return string();
+        if (c == '-' || (c >= '0' && c <= '9')) return number();
+        if (text.startsWith("true", current)) return literal("true", true);
+        if (text.startsWith("false", current)) return literal("false", false);
+        if (text.startsWith("null", current)) return literal("null", null);
+        throw error("Unexpected '" + c + "'");
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        expect('{');
+        skipWhitespace();
+        if (match('}')) return object;
+
+        do {
+            skipWhitespace();
+            String key = string();
+            skipWhitespace();
+            expect(':');
+            object.put(key, value());
+            skipWhitespace();
+        } while (match(','));
+        expect('}');
+        return object;
+    }
+
+    private List<Object> array() {
+        List<Object> array = new ArrayList<>();
+        expect('[');
+        skipWhitespace();
+        if (match(']')) return array;
+
+        do {
+            array.add(value());
+            skipWhitespace();
+        } while (match(','));
+        expect(']');
+        return array;
+    }
+
+    private String string() {
+        expect('"');
+        StringBuilder string = new StringBuilder();
+        while (current < text.length()) {
+            char c = text.charAt(current++);
+            if (c == '"') return string.toString();
+            if (c != '\\') {
+                string.append(c);
+                continue;
+            }
+
+            if (current == text.length()) break;
+            char escape = text.charAt(current++);
+            switch (escape) {
+                case 'b': string.append('\b'); break;
+                case 'f': string.append('\f'); break;
+                case 'n': string.append('\n'); break;
+                case 'r': string.append('\r'); break;
+                case 't': string.append('\t'); break;
+                case 'u':
+                    if (current + 4 > text.length()) throw error("Bad \\u escape");
+                    string.append((char)Integer.parseInt(text.substring(current, current + 4), 16));
+                    current += 4;
+                    break;
+                default: string.append(escape); break;  // \" \\ \/
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private Double number() {
+        int start = current;
+        while (current < text.length() && "+-0123456789.eE".indexOf(text.charAt(current)) >= 0) current++;
+        try {
+            return Double.parseDouble(text.substring(start, current));
+        } catch (NumberFormatException e) {
+            throw error("Bad number");
+        }
+    }
+
+    private Object literal(String word, Object value) {
+        current += word.length();
+        return value;
+    }
+
+    private void skipWhitespace() {
+        while (current < text.length() && Character.isWhitespace(text.charAt(current))) current++;
+    }
+
+    private boolean match(char expected) {
+        if (current == text.length() || text.charAt(current) != expected) return false;
+        current++;
+        return true;
+    }
+
+    private void expect(char expected) {
+        if (!match(expected)) throw error("Expected '" + expected + "'");
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + current);
+    }
+
+    private static void write(Object value, StringBuilder out, String indent) {
+        if (value instanceof Map) {
+            Map<?, ?> object = (Map<?, ?>)value;
+            if (object.isEmpty()) {
+                out.append("{}");
+                return;
+            }
+
+            out.append("{\n");
+            String inner = indent + "  ";
+            int i = 0;
+            for (Map.Entry<?, ?> entry : object.entrySet()) {
+                out.append(inner);
+                writeString(entry.getKey().toString(), out);
+                out.append(": ");
+                write(entry.getValue(), out, inner);
+                out.append(++i < object.size() ? ",\n" : "\n");
+            }
+            out.append(indent).append('}');
+        } else if (value instanceof List) {
+            List<?> array = (List<?>)value;
+            if (array.isEmpty()) {
+                out.append("[]");
+                return;
+            }
+
+            out.append("[\n");
+            String inner = indent + "  ";
+            for (int i = 0; i < array.size(); i++) {
+                out.append(inner);
+                write(array.get(i), out, inner);
+                out.append(i + 1 < array.size() ? ",\n" : "\n");
+            }
+            out.append(indent).append(']');
+        } else if (value instanceof String) {
+            writeString((String)value, out);
+        } else if (value instanceof Double || value instanceof Float) {
+            double number = ((Number)value).doubleValue();
+            if (Double.isNaN(number) || Double.isInfinite(number)) throw new IllegalArgumentException("JSON has no " + number);
+            out.append(number);
+        } else {
+            out.append(value);  // Other numbers, booleans and null print as themselves
+        }
+    }
+
+    private static void writeString(String string, StringBuilder out) {
+        out.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int)c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
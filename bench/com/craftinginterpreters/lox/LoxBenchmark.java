@@ -0,0 +1,282 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Times each phase of running a script (scanning, parsing, resolving, interpreting) over the corpus in
+ * bench/corpus, so a change to any of them can be measured on its own. Every (script, phase) pair is run
+ * for a while to warm up the JIT, then for a while longer to measure, and reported as milliseconds per run
+ * (mean, standard deviation, best). Each phase only times its own step: parse runs over tokens that were
+ * scanned up front, resolve over an already parsed tree, and interpret over a resolved one, each time in
+ * a fresh context so one run's globals don't carry over into the next.
+ *
+ * The interpret phase is run once per engine (see ENGINES), so a new way of executing Lox can be compared
+ * with the tree-walking interpreter on exactly the same programs. The front end phases are the same for
+ * every engine and only run once.
+ *
+ * Usage: LoxBenchmark [--warmup <seconds>] [--time <seconds>] [--phase <name,...>] [--engine <name,...>]
+ *                     [<script or directory>...]
+ *
+ * It's a plain main() so it runs straight off the compiled classes, like the other benchmarks here. The
+ * same phases and engines are also JMH benchmarks in jmh/ (FrontEndBenchmark and InterpretBenchmark), for
+ * when JMH's forking and dead code protection are worth the longer runs. Run either on a quiet machine,
+ * and compare numbers from the same machine only. RegressionBenchmark runs the same measurements and
+ * checks them against a recorded baseline.
+ */
+public class LoxBenchmark {
+    static final String[] PHASES = { "scan", "parse", "resolve", "interpret" };
+
+    // A way of running a resolved program
+    interface Engine {
+        String name();
+        void run(List<Stmt> statements, Map<Expr, Integer> locals, PrintStream out);
+    }
+
+    static final List<Engine> ENGINES = new ArrayList<>(Arrays.asList(
+        new Engine() {
+            @Override
+            public String name() { return "interpreter"; }
+
+            @Override
+            public void run(List<Stmt> statements, Map<Expr, Integer> locals, PrintStream out) {
+                new LoxContext(out, out, locals).interpreter.run(statements);
+            }
+        },
+        new Engine() {
+            @Override
+            public String name() { return "optimizing"; }
+
+            // Every run starts cold without a profile, so this includes warming up the OptimizingTier
+            @Override
+            public void run(List<Stmt> statements, Map<Expr, Integer> locals, PrintStream out) {
+                LoxContext context = new LoxContext(out, out, locals);
+                context.enableOptimization();
+                context.interpreter.run(statements);
+            }
+        },
+        new Engine() {
+            @Override
+            public String name() { return "tracing"; }
+
+            @Override
+            public void run(List<Stmt> statements, Map<Expr, Integer> locals, PrintStream out) {
+                LoxContext context = new LoxContext(out, out, locals);
+                context.enableTracing();
+                context.interpreter.run(statements);
+            }
+        }
+    ));
+
+    static class Result {
+        final String script;
+        final String phase;
+        final String engine;  // "-" for the front end phases
+        final int runs;
+        final double meanMillis;
+        final double deviationMillis;
+        final double bestMillis;
+        final double medianMillis;
+        final double p99Millis;
+        final long allocatedBytes;  // Median per run, on the benchmark thread
+
+        Result(String script, String phase, String engine, Measurement measurement) {
+            this.script = script;
+            this.phase = phase;
+            this.engine = engine;
+
+            long[] times = measurement.times;
+            this.runs = times.length;
+
+            double sum = 0;
+            long best = Long.MAX_VALUE;
+            for (long time : times) {
+                sum += time;
+                best = Math.min(best, time);
+            }
+            double mean = sum / times.length;
+
+            double squares = 0;
+            for (long time : times) {
+                squares += (time - mean) * (time - mean);
+            }
+
+            this.meanMillis = mean / 1e6;
+            this.deviationMillis = Math.sqrt(squares / times.length) / 1e6;
+            this.bestMillis = best / 1e6;
+            this.medianMillis = percentile(times, 50) / 1e6;
+            this.p99Millis = percentile(times, 99) / 1e6;
+            this.allocatedBytes = percentile(measurement.bytes, 50);
+        }
+
+        // Nearest rank, so the p99 of fewer than 100 runs is the slowest one
+        private static long percentile(long[] values, int percent) {
+            long[] sorted = values.clone();
+            Arrays.sort(sorted);
+            int rank = (int)Math.ceil(percent / 100.0 * sorted.length);
+            return sorted[Math.max(rank - 1, 0)];
+        }
+    }
+
+    // How long each timed run took in nanoseconds, and how many bytes it allocated
+    static class Measurement {
+        final long[] times;
+        final long[] bytes;
+
+        Measurement(long[] times, long[] bytes) {
+            this.times = times;
+            this.bytes = bytes;
+        }
+    }
+
+    static final PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+    static final ErrorReporter failOnError = diagnostic -> {
+        throw new IllegalStateException("Benchmark script has an error: " + diagnostic);
+    };
+
+    // Only the HotSpot version of the bean can count allocated bytes
+    private static final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+    private final double warmupSeconds;
+    private final double measureSeconds;
+    private final int warmupRuns;
+    private final int measuredRuns;
+
+    LoxBenchmark(double warmupSeconds, double measureSeconds) {
+        this(warmupSeconds, measureSeconds, 1, 5);
+    }
+
+    // Warm up and measure for at least the given time and at least the given number of runs
+    LoxBenchmark(double warmupSeconds, double measureSeconds, int warmupRuns, int measuredRuns) {
+        this.warmupSeconds = warmupSeconds;
+        this.measureSeconds = measureSeconds;
+        this.warmupRuns = warmupRuns;
+        this.measuredRuns = measuredRuns;
+    }
+
+    public static void main(String[] args) throws IOException {
+        double warmup = 2;
+        double time = 3;
+        List<String> phases = Arrays.asList(PHASES);
+        List<String> engines = null;
+        List<Path> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--warmup": warmup = Double.parseDouble(args[++i]); break;
+                case "--time": time = Double.parseDouble(args[++i]); break;
+                case "--phase": phases = Arrays.asList(args[++i].split(",")); break;
+                case "--engine": engines = Arrays.asList(args[++i].split(",")); break;
+                default:
+                    if (args[i].startsWith("--")) {
+                        System.err.println("Usage: LoxBenchmark [--warmup <seconds>] [--time <seconds>] " +
+                            "[--phase <name,...>] [--engine <name,...>] [<script or directory>...]");
+                        System.exit(64);
+                    }
+                    paths.add(Paths.get(args[i]));
+            }
+        }
+        if (paths.isEmpty()) paths.add(Paths.get("bench", "corpus"));
+
+        LoxBenchmark benchmark = new LoxBenchmark(warmup, time);
+        System.out.printf("%-20s %-10s %-12s %6s %11s %9s %11s%n", "script", "phase", "engine", "runs", "mean ms", "+/- ms", "best ms");
+        for (Path script : scripts(paths)) {
+            for (Result result : benchmark.run(script, phases, engines)) {
+                System.out.printf("%-20s %-10s %-12s %6d %11.3f %9.3f %11.3f%n", result.script, result.phase,
+                    result.engine, result.runs, result.meanMillis, result.deviationMillis, result.bestMillis);
+            }
+        }
+    }
+
+    // Every .lox file in the given directories, and the given files, sorted by name
+    static List<Path> scripts(List<Path> paths) throws IOException {
+        List<Path> scripts = new ArrayList<>();
+        for (Path path : paths) {
+            if (Files.isDirectory(path)) {
+                try (DirectoryStream<Path> directory = Files.newDirectoryStream(path, "*.lox")) {
+                    directory.forEach(scripts::add);
+                }
+            } else {
+                scripts.add(path);
+            }
+        }
+        scripts.sort(null);
+        return scripts;
+    }
+
+    // Phases that aren't in phases are skipped, as are engines not in engines (null for all of them)
+    List<Result> run(Path script, List<String> phases, List<String> engines) throws IOException {
+        String name = script.getFileName().toString().replaceFirst("\\.lox$", "");
+        String source = new String(Files.readAllBytes(script), Charset.defaultCharset());
+
+        // Each phase's input, made once
+        List<Token> tokens = new Scanner(source, failOnError).scanTokens();
+        List<Stmt> statements = new Parser(tokens, failOnError).parse();
+        Map<Expr, Integer> locals = new HashMap<>();
+        new Resolver(locals, failOnError).resolve(statements);
+
+        List<Result> results = new ArrayList<>();
+        if (phases.contains("scan")) {
+            results.add(new Result(name, "scan", "-", measure(() -> new Scanner(source, failOnError).scanTokens())));
+        }
+        if (phases.contains("parse")) {
+            results.add(new Result(name, "parse", "-", measure(() -> new Parser(tokens, failOnError).parse())));
+        }
+        if (phases.contains("resolve")) {
+            results.add(new Result(name, "resolve", "-",
+                measure(() -> new Resolver(new HashMap<>(), failOnError).resolve(statements))));
+        }
+        if (phases.contains("interpret")) {
+            for (Engine engine : ENGINES) {
+                if (engines != null && !engines.contains(engine.name())) continue;
+                results.add(new Result(name, "interpret", engine.name(),
+                    measure(() -> engine.run(statements, locals, discard))));
+            }
+        }
+        return results;
+    }
+
+    // Run body over and over, first to warm up and then to time it
+    private Measurement measure(Runnable body) {
+        int warmups = 0;
+        long warmupEnd = System.nanoTime() + (long)(warmupSeconds * 1e9);
+        do {
+            body.run();
+            warmups++;
+        } while (warmups < warmupRuns || System.nanoTime() < warmupEnd);
+
+        long[] times = new long[64];
+        long[] bytes = new long[64];
+        int runs = 0;
+        long measureEnd = System.nanoTime() + (long)(measureSeconds * 1e9);
+        do {
+            long allocated = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            body.run();
+            long elapsed = System.nanoTime() - start;
+
+            if (runs == times.length) {
+                times = Arrays.copyOf(times, runs * 2);
+                bytes = Arrays.copyOf(bytes, runs * 2);
+            }
+            times[runs] = elapsed;
+            bytes[runs] = threads.getCurrentThreadAllocatedBytes() - allocated;
+            runs++;
+        } while (runs < measuredRuns || System.nanoTime() < measureEnd);
+
+        return new Measurement(Arrays.copyOf(times, runs), Arrays.copyOf(bytes, runs));
+    }
+}
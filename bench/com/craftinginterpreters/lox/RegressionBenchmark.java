@@ -0,0 +1,175 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Checks the corpus against a checked-in baseline (bench/baseline.json) and fails if anything got slower
+ * or allocates more. Every phase of every script runs a fixed number of times under every engine after a
+ * fixed number of warm-up runs (using LoxBenchmark), and the median time and median bytes allocated per
+ * run are compared with the baseline's. Anything more than --threshold percent worse (and worse by more
+ * than a small absolute amount, so sub-millisecond phases don't fail on noise) is a regression: the table
+ * marks it, and the exit code is 1. The p99 is shown to help read the results but isn't checked, one slow
+ * run is too easy to get from the machine rather than the code.
+ *
+ * Usage: RegressionBenchmark [--runs <count>] [--warmup <count>] [--threshold <percent>]
+ *                            [--baseline <file>] [--record] [<script or directory>...]
+ *
+ * --record writes the results as the new baseline instead of comparing. Times are only comparable on the
+ * machine the baseline was recorded on, so re-record it there after a deliberate change in performance
+ * (and on a new machine before trusting the comparison at all). Allocation counts travel much better.
+ */
+public class RegressionBenchmark {
+    // Slowdowns smaller than these are never regressions. The small phases allocate a few KB more or less
+    // depending on what the JIT has compiled by then
+    private static final double MIN_MILLIS = 0.1;
+    private static final long MIN_BYTES = 16 * 1024;
+    private static final double WARMUP_SECONDS = 0.5;
+
+    public static void main(String[] args) throws IOException {
+        int runs = 20;
+        int warmup = 10;
+        double threshold = 10;
+        Path baselinePath = Paths.get("bench", "baseline.json");
+        boolean record = false;
+        List<Path> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--runs": runs = Integer.parseInt(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--threshold": threshold = Double.parseDouble(args[++i]); break;
+                case "--baseline": baselinePath = Paths.get(args[++i]); break;
+                case "--record": record = true; break;
+                default:
+                    if (args[i].startsWith("--")) {
+                        System.err.println("Usage: RegressionBenchmark [--runs <count>] [--warmup <count>] " +
+                            "[--threshold <percent>] [--baseline <file>] [--record] [<script or directory>...]");
+                        System.exit(64);
+                    }
+                    paths.add(Paths.get(args[i]));
+            }
+        }
+        if (paths.isEmpty()) paths.add(Paths.get("bench", "corpus"));
+
+        // The warm-up also gets a minimum time, since a few runs of a fast phase don't get it compiled
+        LoxBenchmark benchmark = new LoxBenchmark(WARMUP_SECONDS, 0, warmup, runs);
+        List<LoxBenchmark.Result> results = new ArrayList<>();
+        for (Path script : LoxBenchmark.scripts(paths)) {
+            results.addAll(benchmark.run(script, Arrays.asList(LoxBenchmark.PHASES), null));
+        }
+
+        if (record) {
+            Files.write(baselinePath, Json.write(toJson(results, runs)).getBytes(StandardCharsets.UTF_8));
+            System.out.println("Recorded " + results.size() + " results in " + baselinePath);
+            return;
+        }
+
+        Map<String, Map<?, ?>> baseline = readBaseline(baselinePath);
+        System.exit(compare(results, baseline, threshold / 100) ? 1 : 0);
+    }
+
+    // Prints the comparison, returns whether anything regressed
+    private static boolean compare(List<LoxBenchmark.Result> results, Map<String, Map<?, ?>> baseline, double threshold) {
+        List<String> regressions = new ArrayList<>();
+
+        System.out.printf("%-20s %-10s %-12s %21s %8s %9s %23s %8s%n", "script", "phase", "engine",
+            "median ms", "", "p99 ms", "allocated KB", "");
+        for (LoxBenchmark.Result result : results) {
+            String key = key(result.script, result.phase, result.engine);
+            Map<?, ?> base = baseline.remove(key);
+            if (base == null) {
+                System.out.printf("%-20s %-10s %-12s %10s -> %8.3f %8s %9.3f %11s -> %9.1f   (new)%n", result.script,
+                    result.phase, result.engine, "", result.medianMillis, "", result.p99Millis, "", result.allocatedBytes / 1024.0);
+                continue;
+            }
+
+            double baseMillis = ((Number)base.get("medianMillis")).doubleValue();
+            long baseBytes = ((Number)base.get("allocatedBytes")).longValue();
+            boolean slower = result.medianMillis > baseMillis * (1 + threshold) && result.medianMillis - baseMillis > MIN_MILLIS;
+            boolean bigger = result.allocatedBytes > baseBytes * (1 + threshold) && result.allocatedBytes - baseBytes > MIN_BYTES;
+
+            System.out.printf("%-20s %-10s %-12s %8.3f -> %8.3f %+7.1f%% %9.3f %9.1f -> %9.1f %+7.1f%%%s%n", result.script,
+                result.phase, result.engine, baseMillis, result.medianMillis, change(baseMillis, result.medianMillis),
+                result.p99Millis, baseBytes / 1024.0, result.allocatedBytes / 1024.0,
+                change(baseBytes, result.allocatedBytes), slower || bigger ? "  REGRESSION" : "");
+
+            if (slower) regressions.add(String.format("%s is %.1f%% slower", key, change(baseMillis, result.medianMillis)));
+            if (bigger) regressions.add(String.format("%s allocates %.1f%% more", key, change(baseBytes, result.allocatedBytes)));
+        }
+
+        if (!baseline.isEmpty()) {
+            System.out.println(baseline.size() + " results in the baseline weren't run");
+        }
+
+        System.out.println();
+        if (regressions.isEmpty()) {
+            System.out.printf("No regressions over %.0f%%%n", threshold * 100);
+            return false;
+        }
+
+        System.out.println(regressions.size() + (regressions.size() == 1 ? " regression" : " regressions") +
+            String.format(" over %.0f%%:", threshold * 100));
+        for (String regression : regressions) {
+            System.out.println("  " + regression);
+        }
+        return true;
+    }
+
+    private static double change(double before, double after) {
+        return before == 0 ? 0 : (after - before) / before * 100;
+    }
+
+    private static String key(Object script, Object phase, Object engine) {
+        return script + "/" + phase + "/" + engine;
+    }
+
+    private static Map<String, Object> toJson(List<LoxBenchmark.Result> results, int runs) {
+        List<Object> entries = new ArrayList<>();
+        for (LoxBenchmark.Result result : results) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("script", result.script);
+            entry.put("phase", result.phase);
+            entry.put("engine", result.engine);
+            entry.put("medianMillis", round(result.medianMillis));
+            entry.put("p99Millis", round(result.p99Millis));
+            entry.put("allocatedBytes", result.allocatedBytes);
+            entries.add(entry);
+        }
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("runs", runs);
+        json.put("java", System.getProperty("java.version"));
+        json.put("results", entries);
+        return json;
+    }
+
+    // Microseconds are plenty, and keep the file readable
+    private static double round(double millis) {
+        return Math.round(millis * 1000) / 1000.0;
+    }
+
+    // Baseline entries by key(), in file order
+    private static Map<String, Map<?, ?>> readBaseline(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            System.err.println("No baseline at " + path + ", make one with --record");
+            System.exit(66);
+        }
+
+        Map<String, Map<?, ?>> baseline = new LinkedHashMap<>();
+        Map<?, ?> json = (Map<?, ?>)Json.read(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+        for (Object element : (List<?>)json.get("results")) {
+            Map<?, ?> entry = (Map<?, ?>)element;
+            baseline.put(key(entry.get("script"), entry.get("phase"), entry.get("engine")), entry);
+        }
+        return baseline;
+    }
+}
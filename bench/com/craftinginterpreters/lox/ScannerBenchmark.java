@@ -0,0 +1,59 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/*
+ * Scanner throughput in tokens/second. The given scripts are concatenated over and over into one big
+ * corpus (8 MB by default) so the measurement isn't dominated by per-call overhead, then scanned a few
+ * times to warm up before the timed runs.
+ *
+ * Usage: ScannerBenchmark [--size <bytes>] <script>...
+ */
+public class ScannerBenchmark {
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 10;
+
+    public static void main(String[] args) throws IOException {
+        int size = 8 * 1024 * 1024;
+        StringBuilder scripts = new StringBuilder();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--size")) {
+                size = Integer.parseInt(args[++i]);
+            } else {
+                scripts.append(new String(Files.readAllBytes(Paths.get(args[i])), Charset.defaultCharset())).append('\n');
+            }
+        }
+
+        if (scripts.length() == 0) {
+            System.err.println("Usage: ScannerBenchmark [--size <bytes>] <script>...");
+            System.exit(64);
+        }
+
+        StringBuilder corpus = new StringBuilder(size + scripts.length());
+        while (corpus.length() < size) corpus.append(scripts);
+        String source = corpus.toString();
+
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            new Scanner(source, diagnostic -> {}).scanTokens();
+        }
+
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        int tokens = 0;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long start = System.nanoTime();
+            tokens = new Scanner(source, diagnostic -> {}).scanTokens().size();
+            long elapsed = System.nanoTime() - start;
+
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+
+        System.out.printf("%d chars, %d tokens%n", source.length(), tokens);
+        System.out.printf("mean: %.1f M tokens/s%n", tokens * (double)MEASURED_RUNS / total * 1000.0);
+        System.out.printf("best: %.1f M tokens/s%n", tokens / (double)best * 1000.0);
+    }
+}
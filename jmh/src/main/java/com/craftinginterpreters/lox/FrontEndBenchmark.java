@@ -0,0 +1,72 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * The front end phases of LoxBenchmark under JMH: scanning, parsing and resolving each script in the
+ * corpus. Like there, each phase only times its own step, over input the earlier phases made up front.
+ * The phases are the same whatever runs the program afterwards, so unlike InterpretBenchmark there's no
+ * engine parameter.
+ *
+ * Run from the repository root so the default corpus is found, or pass -p corpus=<directory>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+    @Param({ "binary_trees", "closures", "fib", "instantiation", "string_building", "zoo" })
+    public String script;
+
+    @Param("bench/corpus")
+    public String corpus;
+
+    private String source;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+
+    @Setup
+    public void setUp() throws IOException {
+        source = new String(Files.readAllBytes(Paths.get(corpus, script + ".lox")), Charset.defaultCharset());
+        tokens = new Scanner(source, LoxBenchmark.failOnError).scanTokens();
+        statements = new Parser(tokens, LoxBenchmark.failOnError).parse();
+    }
+
+    @Benchmark
+    public List<Token> scan() {
+        return new Scanner(source, LoxBenchmark.failOnError).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens, LoxBenchmark.failOnError).parse();
+    }
+
+    @Benchmark
+    public Map<Expr, Integer> resolve() {
+        Map<Expr, Integer> locals = new HashMap<>();
+        new Resolver(locals, LoxBenchmark.failOnError).resolve(statements);
+        return locals;
+    }
+}
@@ -0,0 +1,68 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * The interpret phase of LoxBenchmark under JMH: running each resolved script in the corpus with each of
+ * LoxBenchmark.ENGINES, in a fresh context every time. engine takes the engines' names, so a new engine
+ * only needs adding to the list there and here.
+ *
+ * Run from the repository root so the default corpus is found, or pass -p corpus=<directory>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpretBenchmark {
+    @Param({ "binary_trees", "closures", "fib", "instantiation", "string_building", "zoo" })
+    public String script;
+
+    @Param({ "interpreter", "optimizing", "tracing" })
+    public String engine;
+
+    @Param("bench/corpus")
+    public String corpus;
+
+    private LoxBenchmark.Engine runner;
+    private List<Stmt> statements;
+    private final Map<Expr, Integer> locals = new HashMap<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        for (LoxBenchmark.Engine candidate : LoxBenchmark.ENGINES) {
+            if (candidate.name().equals(engine)) runner = candidate;
+        }
+        if (runner == null) throw new IllegalArgumentException("No engine called '" + engine + "'.");
+
+        String source = new String(Files.readAllBytes(Paths.get(corpus, script + ".lox")), Charset.defaultCharset());
+        List<Token> tokens = new Scanner(source, LoxBenchmark.failOnError).scanTokens();
+        statements = new Parser(tokens, LoxBenchmark.failOnError).parse();
+        new Resolver(locals, LoxBenchmark.failOnError).resolve(statements);
+    }
+
+    @Benchmark
+    public void interpret() {
+        runner.run(statements, locals, LoxBenchmark.discard);
+    }
+}
@@ -0,0 +1,62 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Something compiled code counts on staying true so it can skip checking it, like "the global fib still
+ * holds the same function" (see GlobalEnvironment.stable()) or "no Node instance has a field called area"
+ * (see LoxClass.noField()). Whatever would make it false invalidates it first, and everything that
+ * depends on it goes with it.
+ *
+ * Every piece of compiled code has an assumption of its own, that it's still fine to run, which depends
+ * on all the ones its nodes made. It checks that at the statement boundaries where it can hand over to
+ * the Interpreter, and once it's invalid it gives the rest of what it was running to the interpreter
+ * (deoptimization, see ClosureCompiler). The OptimizingTier throws invalid code away, so it warms up and
+ * gets compiled again under whatever is true by then.
+ *
+ * Checking one is a read of a volatile boolean. Invalidating one is rare and allowed to be slow.
+ */
+final class Assumption {
+    final String description;
+    private volatile boolean valid = true;
+    private List<Assumption> dependents = new ArrayList<>();  // Guarded by this, null once invalid
+
+    Assumption(String description) {
+        this.description = description;
+    }
+
+    boolean isValid() {
+        return valid;
+    }
+
+    // Invalidate dependent along with this, or right away if this already is
+    void addDependent(Assumption dependent) {
+        synchronized (this) {
+            if (valid) {
+                dependents.add(dependent);
+                return;
+            }
+        }
+        dependent.invalidate();
+    }
+
+    void invalidate() {
+        List<Assumption> invalidated;
+        synchronized (this) {
+            if (!valid) return;
+            valid = false;
+            invalidated = dependents;
+            dependents = null;
+        }
+
+        for (Assumption dependent : invalidated) {
+            dependent.invalidate();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
@@ -0,0 +1,556 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Compact binary form of a resolved program. Every node is written as a one byte tag followed by its
+ * fields in the same order GenerateAst declares them. Strings go through a table so identifiers that
+ * show up hundreds of times in a script are only written once, and the resolver's scope distances are
+ * written inline with the Variable/Assign/This/Super nodes they belong to.
+ *
+ * Reading a program back produces brand new node objects, so the distances are put back into the locals
+ * map keyed by those new nodes, exactly like the Resolver would have done.
+ */
+class AstSerializer {
+    private static final int NULL = 0;
+
+    // Stmt tags
+    private static final int BLOCK = 1;
+    private static final int CLASS = 2;
+    private static final int EXPRESSION = 3;
+    private static final int FUNCTION = 4;
+    private static final int IF = 5;
+    private static final int PRINT = 6;
+    private static final int RETURN = 7;
+    private static final int VAR = 8;
+    private static final int WHILE = 9;
+
+    // Expr tags
+    private static final int ASSIGN = 20;
+    private static final int BINARY = 21;
+    private static final int CALL = 22;
+    private static final int GET = 23;
+    private static final int GROUPING = 24;
+    private static final int LITERAL = 25;
+    private static final int LOGICAL = 26;
+    private static final int SET = 27;
+    private static final int SUPER = 28;
+    private static final int THIS = 29;
+    private static final int UNARY = 30;
+    private static final int VARIABLE = 31;
+
+    // Literal value tags
+    private static final int NIL_VALUE = 0;
+    private static final int NUMBER_VALUE = 1;
+    private static final int STRING_VALUE = 2;
+    private static final int TRUE_VALUE = 3;
+    private static final int FALSE_VALUE = 4;
+
+    private static final TokenType[] tokenTypes = TokenType.values();
+
+    static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final DataOutputStream out;
+        private final Map<Expr, Integer> locals;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Writer(DataOutputStream out, Map<Expr, Integer> locals) {
+            this.out = out;
+            this.locals = locals;
+        }
+
+        void writeStatements(List<Stmt> statements) throws IOException {
+            writeVarint(statements.size());
+            for (Stmt statement : statements) {
+                writeStmt(statement);
+            }
+        }
+
+        void writeStmt(Stmt stmt) throws IOException {
+            if (stmt == null) {
+                out.writeByte(NULL);
+                return;
+            }
+
+            try {
+                stmt.accept(this);
+            } catch (UncheckedIO e) {  // Visitors can't throw checked exceptions, so they get smuggled out
+                throw e.cause;
+            }
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            tag(BLOCK);
+            stmts(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            tag(CLASS);
+            token(stmt.name);
+            expr(stmt.superclass);
+            varint(stmt.methods.size());
+            for (Stmt.Function method : stmt.methods) {
+                method.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            tag(EXPRESSION);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            tag(FUNCTION);
+            token(stmt.name);
+            varint(stmt.params.size());
+            for (Token param : stmt.params) {
+                token(param);
+            }
+            stmts(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            tag(IF);
+            expr(stmt.condition);
+            stmt(stmt.thenBranch);
+            stmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            tag(PRINT);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            tag(RETURN);
+            token(stmt.keyword);
+            expr(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            tag(VAR);
+            token(stmt.name);
+            expr(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            tag(WHILE);
+            token(stmt.keyword);
+            expr(stmt.condition);
+            stmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            tag(ASSIGN);
+            token(expr.name);
+            expr(expr.value);
+            depth(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            tag(BINARY);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            tag(CALL);
+            expr(expr.callee);
+            token(expr.paren);
+            varint(expr.arguments.size());
+            for (Expr argument : expr.arguments) {
+                expr(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            tag(GET);
+            expr(expr.object);
+            token(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            tag(GROUPING);
+            expr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            tag(LITERAL);
+            value(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            tag(LOGICAL);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            tag(SET);
+            expr(expr.object);
+            token(expr.name);
+            expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            tag(SUPER);
+            token(expr.keyword);
+            token(expr.method);
+            depth(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            tag(THIS);
+            token(expr.keyword);
+            depth(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            tag(UNARY);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            tag(VARIABLE);
+            token(expr.name);
+            depth(expr);
+            return null;
+        }
+
+        private void stmts(List<Stmt> statements) {
+            varint(statements.size());
+            for (Stmt statement : statements) {
+                stmt(statement);
+            }
+        }
+
+        private void stmt(Stmt stmt) {
+            if (stmt == null) {
+                tag(NULL);
+            } else {
+                stmt.accept(this);
+            }
+        }
+
+        private void expr(Expr expr) {
+            if (expr == null) {
+                tag(NULL);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void token(Token token) {
+            varint(token.type.ordinal());
+            string(token.lexeme);
+            value(token.literal);
+            varint(token.line);
+        }
+
+        private void depth(Expr expr) {
+            Integer distance = locals.get(expr);
+            varint(distance == null ? 0 : distance + 1);  // 0 is global, so the common case stays one byte
+        }
+
+        private void value(Object value) {
+            try {
+                if (value == null) {
+                    out.writeByte(NIL_VALUE);
+                } else if (value instanceof Double) {
+                    out.writeByte(NUMBER_VALUE);
+                    out.writeDouble((double)value);
+                } else if (value instanceof String) {
+                    out.writeByte(STRING_VALUE);
+                    string((String)value);
+                } else if (value instanceof Boolean) {
+                    out.writeByte((boolean)value ? TRUE_VALUE : FALSE_VALUE);
+                } else {
+                    throw new IllegalArgumentException("Cannot serialize literal " + value);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIO(e);
+            }
+        }
+
+        // Strings are written once and referred to by index after that. An index equal to the size of the
+        // table means a new string follows
+        private void string(String value) {
+            Integer index = strings.get(value);
+            if (index != null) {
+                varint(index);
+                return;
+            }
+
+            strings.put(value, strings.size());
+            varint(strings.size() - 1);
+
+            // writeUTF() tops out at 64K, which a long string literal can blow past
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            try {
+                out.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIO(e);
+            }
+        }
+
+        private void tag(int tag) {
+            try {
+                out.writeByte(tag);
+            } catch (IOException e) {
+                throw new UncheckedIO(e);
+            }
+        }
+
+        private void varint(int value) {
+            try {
+                writeVarint(value);
+            } catch (IOException e) {
+                throw new UncheckedIO(e);
+            }
+        }
+
+        // LEB128, 7 bits at a time. Almost every count, index and line number fits in one or two bytes
+        private void writeVarint(int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                out.writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+    }
+
+    static class Reader {
+        private final DataInputStream in;
+        private final Map<Expr, Integer> locals;
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(DataInputStream in, Map<Expr, Integer> locals) {
+            this.in = in;
+            this.locals = locals;
+        }
+
+        List<Stmt> readStatements() throws IOException {
+            int count = readVarint();
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                statements.add(readStmt());
+            }
+            return statements;
+        }
+
+        Stmt readStmt() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NULL: return null;
+                case BLOCK: return new Stmt.Block(readStatements());
+                case CLASS: {
+                    Token name = readToken();
+                    Expr.Variable superclass = (Expr.Variable)readExpr();
+                    int count = readVarint();
+                    List<Stmt.Function> methods = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        methods.add((Stmt.Function)readStmt());
+                    }
+                    return new Stmt.Class(name, superclass, methods);
+                }
+                case EXPRESSION: return new Stmt.Expression(readExpr());
+                case FUNCTION: {
+                    Token name = readToken();
+                    int count = readVarint();
+                    List<Token> params = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        params.add(readToken());
+                    }
+                    return new Stmt.Function(name, params, readStatements());
+                }
+                case IF: {
+                    Expr condition = readExpr();
+                    Stmt thenBranch = readStmt();
+                    return new Stmt.If(condition, thenBranch, readStmt());
+                }
+                case PRINT: return new Stmt.Print(readExpr());
+                case RETURN: {
+                    Token keyword = readToken();
+                    return new Stmt.Return(keyword, readExpr());
+                }
+                case VAR: {
+                    Token name = readToken();
+                    return new Stmt.Var(name, readExpr());
+                }
+                case WHILE: {
+                    Token keyword = readToken();
+                    Expr condition = readExpr();
+                    return new Stmt.While(keyword, condition, readStmt());
+                }
+            }
+
+            throw new IOException("Unknown statement tag " + tag + ".");
+        }
+
+        private Expr readExpr() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NULL: return null;
+                case ASSIGN: {
+                    Token name = readToken();
+                    return readDepth(new Expr.Assign(name, readExpr()));
+                }
+                case BINARY: {
+                    Expr left = readExpr();
+                    Token operator = readToken();
+                    return new Expr.Binary(left, operator, readExpr());
+                }
+                case CALL: {
+                    Expr callee = readExpr();
+                    Token paren = readToken();
+                    int count = readVarint();
+                    List<Expr> arguments = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        arguments.add(readExpr());
+                    }
+                    return new Expr.Call(callee, paren, arguments);
+                }
+                case GET: {
+                    Expr object = readExpr();
+                    return new Expr.Get(object, readToken());
+                }
+                case GROUPING: return new Expr.Grouping(readExpr());
+                case LITERAL: return new Expr.Literal(readValue());
+                case LOGICAL: {
+                    Expr left = readExpr();
+                    Token operator = readToken();
+                    return new Expr.Logical(left, operator, readExpr());
+                }
+                case SET: {
+                    Expr object = readExpr();
+                    Token name = readToken();
+                    return new Expr.Set(object, name, readExpr());
+                }
+                case SUPER: {
+                    Token keyword = readToken();
+                    return readDepth(new Expr.Super(keyword, readToken()));
+                }
+                case THIS: return readDepth(new Expr.This(readToken()));
+                case UNARY: {
+                    Token operator = readToken();
+                    return new Expr.Unary(operator, readExpr());
+                }
+                case VARIABLE: return readDepth(new Expr.Variable(readToken()));
+            }
+
+            throw new IOException("Unknown expression tag " + tag + ".");
+        }
+
+        private Token readToken() throws IOException {
+            int type = readVarint();
+            if (type >= tokenTypes.length) throw new IOException("Unknown token type " + type + ".");
+
+            String lexeme = readString();
+            Object literal = readValue();
+            return new Token(tokenTypes[type], lexeme, literal, readVarint());
+        }
+
+        private <E extends Expr> E readDepth(E expr) throws IOException {
+            int depth = readVarint();
+            if (depth > 0) locals.put(expr, depth - 1);
+            return expr;
+        }
+
+        private Object readValue() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NIL_VALUE: return null;
+                case NUMBER_VALUE: return in.readDouble();
+                case STRING_VALUE: return readString();
+                case TRUE_VALUE: return true;
+                case FALSE_VALUE: return false;
+            }
+
+            throw new IOException("Unknown value tag " + tag + ".");
+        }
+
+        private String readString() throws IOException {
+            int index = readVarint();
+            if (index < strings.size()) return strings.get(index);
+            if (index != strings.size()) throw new IOException("Bad string index " + index + ".");
+
+            byte[] bytes = new byte[readVarint()];
+            in.readFully(bytes);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+
+        private int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+
+            throw new IOException("Malformed varint.");
+        }
+    }
+
+    // Lets the Writer's visitor methods carry an IOException out through accept()
+    private static class UncheckedIO extends RuntimeException {
+        final IOException cause;
+
+        UncheckedIO(IOException cause) {
+            super(null, null, false, false);
+            this.cause = cause;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Globals to define before a CompiledScript runs, and where their final values end up afterwards. Values
+ * have to be something Lox understands: null (nil), Boolean, String, or a number, which is converted to
+ * the double Lox uses for all numbers. Anything the script got from Lox itself (instances, functions)
+ * can be passed back into another run as is.
+ *
+ *   Bindings bindings = new Bindings().put("name", "world").put("count", 3);
+ *   script.run(bindings);
+ *   Object result = bindings.get("result");  // If the script assigned to a global "result" declared in
+ *                                            // the bindings, this is its value after the run
+ *
+ * Not safe to share between threads that run scripts at the same time. Make one per run instead, they're
+ * cheap.
+ */
+public class Bindings {
+    private final Map<String, Object> values = new LinkedHashMap<>();
+
+    public Bindings put(String name, Object value) {
+        values.put(name, toLox(value));
+        return this;
+    }
+
+    public Object get(String name) {
+        return values.get(name);
+    }
+
+    public boolean contains(String name) {
+        return values.containsKey(name);
+    }
+
+    public Map<String, Object> asMap() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    void defineIn(GlobalEnvironment globals) {
+        values.forEach(globals::define);
+    }
+
+    // Pick up whatever the script left in the globals it was given
+    void updateFrom(GlobalEnvironment globals) {
+        Map<String, Object> snapshot = globals.snapshot();
+        values.replaceAll((name, value) -> snapshot.get(name));
+    }
+
+    private static Object toLox(Object value) {
+        if (value == null || value instanceof Boolean || value instanceof String || value instanceof Double) {
+            return value;
+        }
+        if (value instanceof Number) return ((Number)value).doubleValue();
+        if (value instanceof LoxCallable || value instanceof LoxObject) return value;
+
+        throw new IllegalArgumentException("Lox has no type for " + value.getClass().getName());
+    }
+}
@@ -0,0 +1,1093 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The optimizing tier's compiler (see OptimizingTier). It turns a function's syntax tree into a tree of
+ * nodes, one small object per operation, that does what the Interpreter would but moves everything that
+ * doesn't depend on the values to compile time:
+ *
+ *   - Variables are resolved once. A local becomes a node that knows its distance, instead of looking the
+ *     Expr up in the locals map on every access.
+ *   - A block that declares nothing, and has no function or class in it that could capture its scope,
+ *     runs in the enclosing environment instead of allocating one of its own that would always be empty.
+ *     Distances are worked out without the blocks that were left out.
+ *   - There's no visitor double dispatch, each node calls its children directly.
+ *   - Nodes whose work depends on types specialize themselves on the values they see. An addition that
+ *     has only seen numbers adds doubles without boxing the intermediate results of the expression it's
+ *     in, a property read remembers which method it found on the class it keeps seeing, a call remembers
+ *     the compiled code of the function it keeps calling. When something shows up that doesn't fit, the
+ *     node goes generic for good. Every state still checks what it assumes, so a node in the wrong state
+ *     is slower, never wrong.
+ *
+ * Compiled code keeps its variables in the same Environment objects the Interpreter uses, so closures,
+ * instances and the rest of the runtime don't know or care which tier made them. Statements return
+ * NORMAL, or the value of a return statement that ran, instead of throwing Return.
+ *
+ * Some nodes go further and skip a check altogether on an Assumption: a read of a global function or
+ * class keeps the value while the global is stable, and a method read skips the instance's fields while
+ * no instance of the class has a field by that name. The code depends on every assumption its nodes
+ * made. When one breaks, blocks and loops notice at their next statement boundary and hand the rest of
+ * what they were running to the interpreter (putting back the environments of any blocks that were left
+ * out), and the OptimizingTier compiles the function again later. A boundary inside a left-out block
+ * that's inside one with an environment can't be handed over, since the interpreter would need the left
+ * out one in the middle of the chain. Code there carries on, still correct, to the next boundary that
+ * can.
+ *
+ * Whatever a specializing node settled on is its type feedback. It's saved in a TypeProfile, and the same
+ * node compiled in a later run starts out in that state instead of learning it again.
+ */
+class ClosureCompiler {
+    static final Object NORMAL = new Object();  // What a statement that didn't return returns
+
+    // Specialization states, also what's saved in a TypeProfile for arithmetic
+    static final int UNINITIALIZED = 0;
+    static final int NUMBERS = 1;
+    static final int STRINGS = 2;
+    static final int GENERIC = 3;
+    static final String POLYMORPHIC = "*";  // Feedback for a site that saw more than one class or function
+
+    private final Map<Expr, Integer> locals;
+    private final TypeProfile profile;
+    private final List<Site> sites = new ArrayList<>();
+    final List<Boolean> scopes = new ArrayList<>();  // Blocks being compiled, innermost last. True if left out
+    Assumption code;  // That the code being compiled is still good to run
+
+    ClosureCompiler(Map<Expr, Integer> locals, TypeProfile profile) {
+        this.locals = locals;
+        this.profile = profile;
+    }
+
+    // A node that learns something worth keeping for the next run
+    interface Site {
+        Object node();  // The Expr it was compiled from
+        Object feedback();  // Integer state, a class name, a Stmt.Function or POLYMORPHIC, null if nothing yet
+    }
+
+    abstract static class StmtNode {
+        abstract Object execute(Interpreter interpreter, Environment environment);
+    }
+
+    abstract static class ExprNode {
+        abstract Object evaluate(Interpreter interpreter, Environment environment);
+
+        // For parents that want a number: the value unboxed, or UnexpectedType if it isn't one
+        double evaluateNumber(Interpreter interpreter, Environment environment) {
+            Object value = evaluate(interpreter, environment);
+            if (value instanceof Double) return (double)value;
+            throw new UnexpectedType(value);
+        }
+
+        // For conditions, so comparisons don't have to box their result
+        boolean evaluateCondition(Interpreter interpreter, Environment environment) {
+            return Interpreter.isTruthy(evaluate(interpreter, environment));
+        }
+    }
+
+    // Thrown by evaluateNumber() with the value that wasn't a number. Only ever caught by the node that
+    // asked for the number, which carries on with the value the slow way
+    static class UnexpectedType extends RuntimeException {
+        final Object value;
+
+        UnexpectedType(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
+    synchronized CompiledFunction compile(Stmt.Function function) {
+        code = new Assumption("code for " + function.name.lexeme + ":" + function.name.line);
+        return new CompiledFunction(function, statements(function.body), code);
+    }
+
+    // Just the loop, for switching to it in the middle of running it (see OptimizingTier)
+    synchronized CompiledLoop compileLoop(Stmt.While loop) {
+        code = new Assumption("code for a loop");
+        return new CompiledLoop(loop, (While)statement(loop), code);
+    }
+
+    // Feedback from every node compiled so far
+    synchronized List<Site> sites() {
+        return new ArrayList<>(sites);
+    }
+
+    StmtNode[] statements(List<Stmt> statements) {
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = statement(statements.get(i));
+        }
+        return nodes;
+    }
+
+    ExprNode[] expressions(List<Expr> expressions) {
+        ExprNode[] nodes = new ExprNode[expressions.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = expression(expressions.get(i));
+        }
+        return nodes;
+    }
+
+    StmtNode statement(Stmt stmt) {
+        if (stmt instanceof Stmt.Expression) return new ExpressionStatement(expression(((Stmt.Expression)stmt).expression));
+        if (stmt instanceof Stmt.Print) return new Print(expression(((Stmt.Print)stmt).expression));
+        if (stmt instanceof Stmt.Block) return block((Stmt.Block)stmt);
+        if (stmt instanceof Stmt.Function) return new FunctionDeclaration((Stmt.Function)stmt);
+
+        if (stmt instanceof Stmt.Var) {
+            Stmt.Var var = (Stmt.Var)stmt;
+            return new Var(var.name.lexeme, var.initializer == null ? null : expression(var.initializer));
+        }
+        if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If)stmt;
+            return new If(expression(ifStmt.condition), statement(ifStmt.thenBranch),
+                ifStmt.elseBranch == null ? null : statement(ifStmt.elseBranch));
+        }
+        if (stmt instanceof Stmt.While) {
+            Stmt.While whileStmt = (Stmt.While)stmt;
+            return new While(whileStmt, expression(whileStmt.condition), statement(whileStmt.body), code, handOver());
+        }
+        if (stmt instanceof Stmt.Return) {
+            Stmt.Return returnStmt = (Stmt.Return)stmt;
+            return new ReturnStatement(returnStmt.value == null ? null : expression(returnStmt.value));
+        }
+
+        return new Interpreted(stmt);  // Class declarations, which aren't worth compiling
+    }
+
+    ExprNode expression(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal)expr).value;
+            return value instanceof Double ? new NumberLiteral((double)value) : new Literal(value);
+        }
+        if (expr instanceof Expr.Grouping) return expression(((Expr.Grouping)expr).expression);
+        if (expr instanceof Expr.Variable) return variable(expr, ((Expr.Variable)expr).name);
+        if (expr instanceof Expr.This) return variable(expr, ((Expr.This)expr).keyword);
+
+        if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign)expr;
+            return new Assign(assign.name, distance(expr, 0), expression(assign.value));
+        }
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            ExprNode right = expression(unary.right);
+            return unary.operator.type == TokenType.BANG ? new Not(right) : new Negate(unary.operator, right);
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical)expr;
+            return new Logical(logical.operator.type == TokenType.OR, expression(logical.left), expression(logical.right));
+        }
+        if (expr instanceof Expr.Binary) return binary((Expr.Binary)expr);
+        if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call)expr;
+            return site(new Call(call, expression(call.callee), expressions(call.arguments), profile.feedback(call)));
+        }
+        if (expr instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get)expr;
+            return site(new Get(get, expression(get.object), profile.feedback(get), code));
+        }
+        if (expr instanceof Expr.Set) {
+            Expr.Set set = (Expr.Set)expr;
+            return new Set(expression(set.object), set.name, expression(set.value));
+        }
+        if (expr instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super)expr;
+            return new Super(superExpr.method, distance(expr, 0), distance(expr, 1));  // "this" is one scope in
+        }
+
+        throw new IllegalArgumentException("Can't compile " + expr.getClass().getSimpleName());
+    }
+
+    private ExprNode variable(Expr expr, Token name) {
+        int distance = distance(expr, 0);
+        return distance < 0 ? new Global(name, code) : new Local(name.lexeme, distance);
+    }
+
+    private ExprNode binary(Expr.Binary expr) {
+        ExprNode left = expression(expr.left);
+        ExprNode right = expression(expr.right);
+
+        switch (expr.operator.type) {
+            case PLUS:
+                Object state = profile.feedback(expr);
+                return site(new Add(expr, left, right, state instanceof Integer ? (int)state : UNINITIALIZED));
+            case MINUS:
+            case STAR:
+            case SLASH:
+                return new Arithmetic(expr.operator, left, right);
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                return new Comparison(expr.operator, left, right);
+            case EQUAL_EQUAL:
+                return new Equality(false, left, right);
+            case BANG_EQUAL:
+                return new Equality(true, left, right);
+            default:
+                throw new IllegalArgumentException("Unknown operator " + expr.operator.lexeme);
+        }
+    }
+
+    // How many environments up from the current one the variable expr refers to is, less inward, or -1 for
+    // a global. The resolver counted every block, this only counts the ones that get an environment
+    private int distance(Expr expr, int inward) {
+        Integer resolved = locals.get(expr);
+        if (resolved == null) return -1;
+
+        int distance = resolved - inward;
+        int hops = distance;
+        for (int i = 0; i < hops && i < scopes.size(); i++) {
+            if (scopes.get(scopes.size() - 1 - i)) distance--;
+        }
+        return distance;
+    }
+
+    private StmtNode block(Stmt.Block block) {
+        boolean leftOut = !declares(block.statements) && !captures(block.statements);
+        scopes.add(leftOut);
+        StmtNode[] statements = statements(block.statements);
+        int handOver = handOver();
+        scopes.remove(scopes.size() - 1);
+        return leftOut ? new Sequence(block.statements, statements, code, handOver) : new Block(block.statements, statements, code, handOver);
+    }
+
+    // How many left-out block environments the interpreter needs put back to take over from here, or -1
+    // if it can't
+    int handOver() {
+        int leftOut = 0;
+        for (boolean scope : scopes) {
+            if (scope) {
+                leftOut++;
+            } else if (leftOut > 0) {
+                return -1;
+            }
+        }
+        return leftOut;
+    }
+
+    // Deoptimize: carry on with statements in the interpreter, in environment wrapped in leftOut empty ones
+    static Object handOver(Interpreter interpreter, List<Stmt> statements, Environment environment, int leftOut) {
+        for (int i = 0; i < leftOut; i++) {
+            environment = new Environment(environment);
+        }
+        return interpreter.resume(statements, environment);
+    }
+
+    // Whether statements define anything in the environment they run in
+    private static boolean declares(List<Stmt> statements) {
+        for (Stmt stmt : statements) {
+            if (stmt instanceof Stmt.Var || stmt instanceof Stmt.Function || stmt instanceof Stmt.Class) return true;
+        }
+        return false;
+    }
+
+    // Whether there's a function or class anywhere in statements, which would capture the environments
+    // around it and count on every block having one
+    private static boolean captures(List<Stmt> statements) {
+        for (Stmt stmt : statements) {
+            if (captures(stmt)) return true;
+        }
+        return false;
+    }
+
+    private static boolean captures(Stmt stmt) {
+        if (stmt instanceof Stmt.Function || stmt instanceof Stmt.Class) return true;
+        if (stmt instanceof Stmt.Block) return captures(((Stmt.Block)stmt).statements);
+        if (stmt instanceof Stmt.While) return captures(((Stmt.While)stmt).body);
+        if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If)stmt;
+            return captures(ifStmt.thenBranch) || (ifStmt.elseBranch != null && captures(ifStmt.elseBranch));
+        }
+        return false;
+    }
+
+    private <T extends ExprNode & Site> T site(T node) {
+        sites.add(node);
+        return node;
+    }
+
+    // Statements
+
+    private static final class ExpressionStatement extends StmtNode {
+        private final ExprNode expression;
+
+        ExpressionStatement(ExprNode expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            interpreter.statementCount++;
+            expression.evaluate(interpreter, environment);
+            return NORMAL;
+        }
+    }
+
+    private static final class Print extends StmtNode {
+        private final ExprNode expression;
+
+        Print(ExprNode expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            interpreter.statementCount++;
+            interpreter.print(expression.evaluate(interpreter, environment));
+            return NORMAL;
+        }
+    }
+
+    private static final class Var extends StmtNode {
+        private final String name;
+        private final ExprNode initializer;
+
+        Var(String name, ExprNode initializer) {
+            this.name = name;
+            this.initializer = initializer;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            interpreter.statementCount++;
+            environment.define(name, initializer == null ? null : initializer.evaluate(interpreter, environment));
+            return NORMAL;
+        }
+    }
+
+    private static final class Block extends StmtNode {
+        private final List<Stmt> source;
+        private final StmtNode[] statements;
+        private final Assumption code;
+        private final int leftOut;  // See handOver()
+
+        Block(List<Stmt> source, StmtNode[] statements, Assumption code, int leftOut) {
+            this.source = source;
+            this.statements = statements;
+            this.code = code;
+            this.leftOut = leftOut;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            interpreter.statementCount++;
+            interpreter.environmentCount++;
+            Environment block = new Environment(environment);
+            for (int i = 0; i < statements.length; i++) {
+                if (leftOut >= 0 && !code.isValid()) return handOver(interpreter, source.subList(i, source.size()), block, leftOut);
+
+                Object result = statements[i].execute(interpreter, block);
+                if (result != NORMAL) return result;
+            }
+            return NORMAL;
+        }
+    }
+
+    // A block that doesn't need an environment of its own
+    private static final class Sequence extends StmtNode {
+        private final List<Stmt> source;
+        private final StmtNode[] statements;
+        private final Assumption code;
+        private final int leftOut;
+
+        Sequence(List<Stmt> source, StmtNode[] statements, Assumption code, int leftOut) {
+            this.source = source;
+            this.statements = statements;
+            this.code = code;
+            this.leftOut = leftOut;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            interpreter.statementCount++;
+            for (int i = 0; i < statements.length; i++) {
+                if (leftOut >= 0 && !code.isValid()) return handOver(interpreter, source.subList(i, source.size()), environment, leftOut);
+
+                Object result = statements[i].execute(interpreter, environment);
+                if (result != NORMAL) return result;
+            }
+            return NORMAL;
+        }
+    }
+
+    private static final class If extends StmtNode {
+        private final ExprNode condition;
+        private final StmtNode thenBranch;
+        private final StmtNode elseBranch;
+
+        If(ExprNode condition, StmtNode thenBranch, StmtNode elseBranch) {
+            this.condition = condition;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            interpreter.statementCount++;
+            if (condition.evaluateCondition(interpreter, environment)) {
+                return thenBranch.execute(interpreter, environment);
+            } else if (elseBranch != null) {
+                return elseBranch.execute(interpreter, environment);
+            }
+            return NORMAL;
+        }
+    }
+
+    static final class While extends StmtNode {
+        private final Stmt.While stmt;
+        private final ExprNode condition;
+        private final StmtNode body;
+        private final Assumption code;
+        private final int leftOut;
+
+        While(Stmt.While stmt, ExprNode condition, StmtNode body, Assumption code, int leftOut) {
+            this.stmt = stmt;
+            this.condition = condition;
+            this.body = body;
+            this.code = code;
+            this.leftOut = leftOut;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            interpreter.statementCount++;
+            return loop(interpreter, environment);
+        }
+
+        // The loop from the top of an iteration, without counting the statement again
+        Object loop(Interpreter interpreter, Environment environment) {
+            while (condition.evaluateCondition(interpreter, environment)) {
+                Object result = body.execute(interpreter, environment);
+                if (result != NORMAL) return result;
+                if (--interpreter.fuel < 0) interpreter.refuel(stmt.keyword);
+                if (leftOut >= 0 && !code.isValid()) return handOver(interpreter, Collections.singletonList(stmt), environment, leftOut);
+            }
+            return NORMAL;
+        }
+    }
+
+    private static final class ReturnStatement extends StmtNode {
+        private final ExprNode value;
+
+        ReturnStatement(ExprNode value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            interpreter.statementCount++;
+            return value == null ? null : value.evaluate(interpreter, environment);
+        }
+    }
+
+    private static final class FunctionDeclaration extends StmtNode {
+        private final Stmt.Function declaration;
+
+        FunctionDeclaration(Stmt.Function declaration) {
+            this.declaration = declaration;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            interpreter.statementCount++;
+            LoxFunction function = new LoxFunction(declaration, environment, false);
+            environment.define(declaration.name.lexeme, function);
+            interpreter.allocated(function, MemoryAccount.CLOSURE);
+            return NORMAL;
+        }
+    }
+
+    // Hands the statement to the interpreter, which counts it itself
+    private static final class Interpreted extends StmtNode {
+        private final Stmt stmt;
+
+        Interpreted(Stmt stmt) {
+            this.stmt = stmt;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            return interpreter.resume(Collections.singletonList(stmt), environment);
+        }
+    }
+
+    // Expressions
+
+    private static class Literal extends ExprNode {
+        private final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            return value;
+        }
+    }
+
+    private static final class NumberLiteral extends Literal {
+        private final double number;
+
+        NumberLiteral(double number) {
+            super(number);
+            this.number = number;
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter, Environment environment) {
+            return number;
+        }
+    }
+
+    private static final class Local extends ExprNode {
+        private final String name;
+        private final int distance;
+
+        Local(String name, int distance) {
+            this.name = name;
+            this.distance = distance;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            return environment.getAt(distance, name);
+        }
+    }
+
+    private static final class Global extends ExprNode {
+        private final Token name;
+        private final Assumption code;
+
+        // A function or class read the first time, kept while the global is stable. Read and written as
+        // one object, like Get's MethodCache
+        private Constant constant = null;
+        private boolean specialized = false;
+
+        private static final class Constant {
+            final Object value;
+            final Assumption stable;
+
+            Constant(Object value, Assumption stable) {
+                this.value = value;
+                this.stable = stable;
+            }
+        }
+
+        Global(Token name, Assumption code) {
+            this.name = name;
+            this.code = code;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Constant cached = constant;
+            if (cached != null && cached.stable.isValid()) return cached.value;
+            if (specialized) return interpreter.globals.get(name);  // Tried once already, or it changed
+
+            specialized = true;
+            Assumption stable = interpreter.globals.stable(name.lexeme);
+            Object value = interpreter.globals.get(name);
+            if (stable != null && value instanceof LoxCallable) {  // Variables holding data change all the time
+                stable.addDependent(code);
+                constant = new Constant(value, stable);
+            }
+            return value;
+        }
+    }
+
+    private static final class Assign extends ExprNode {
+        private final Token name;
+        private final int distance;  // -1 for a global
+        private final ExprNode value;
+
+        Assign(Token name, int distance, ExprNode value) {
+            this.name = name;
+            this.distance = distance;
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object result = value.evaluate(interpreter, environment);
+            if (distance >= 0) {
+                environment.assignAt(distance, name, result);
+            } else {
+                interpreter.globals.assign(name, result);
+            }
+
+            environment.assignBetween(distance, name, result);  // The rest of what the interpreter does, see visitAssignExpr()
+            return result;
+        }
+    }
+
+    private static final class Negate extends ExprNode {
+        private final Token operator;
+        private final ExprNode right;
+
+        Negate(Token operator, ExprNode right) {
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            return evaluateNumber(interpreter, environment);
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter, Environment environment) {
+            try {
+                return -right.evaluateNumber(interpreter, environment);
+            } catch (UnexpectedType e) {
+                throw new RuntimeError(operator, "Operand must be a number.");
+            }
+        }
+    }
+
+    private static final class Not extends ExprNode {
+        private final ExprNode right;
+
+        Not(ExprNode right) {
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            return evaluateCondition(interpreter, environment);
+        }
+
+        @Override
+        boolean evaluateCondition(Interpreter interpreter, Environment environment) {
+            return !right.evaluateCondition(interpreter, environment);
+        }
+    }
+
+    private static final class Logical extends ExprNode {
+        private final boolean or;
+        private final ExprNode left;
+        private final ExprNode right;
+
+        Logical(boolean or, ExprNode left, ExprNode right) {
+            this.or = or;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object value = left.evaluate(interpreter, environment);
+            if (or == Interpreter.isTruthy(value)) return value;
+            return right.evaluate(interpreter, environment);
+        }
+
+        @Override
+        boolean evaluateCondition(Interpreter interpreter, Environment environment) {
+            boolean value = left.evaluateCondition(interpreter, environment);
+            if (or == value) return value;
+            return right.evaluateCondition(interpreter, environment);
+        }
+    }
+
+    private static final class Add extends ExprNode implements Site {
+        private final Expr.Binary expr;
+        private final ExprNode left;
+        private final ExprNode right;
+        private int state;
+
+        Add(Expr.Binary expr, ExprNode left, ExprNode right, int state) {
+            this.expr = expr;
+            this.left = left;
+            this.right = right;
+            this.state = state;
+        }
+
+        @Override
+        public Object node() {
+            return expr;
+        }
+
+        @Override
+        public Object feedback() {
+            return state == UNINITIALIZED ? null : state;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            if (state == NUMBERS) {
+                try {
+                    return evaluateNumber(interpreter, environment);
+                } catch (UnexpectedType e) {
+                    return e.value;  // It went generic and the sum wasn't a number after all
+                }
+            }
+
+            Object l = left.evaluate(interpreter, environment);
+            Object r = right.evaluate(interpreter, environment);
+            if (state == UNINITIALIZED) {
+                if (l instanceof Double && r instanceof Double) {
+                    state = NUMBERS;
+                } else if (l instanceof String && r instanceof String) {
+                    state = STRINGS;
+                } else {
+                    state = GENERIC;
+                }
+            }
+            return add(interpreter, l, r);
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter, Environment environment) {
+            if (state != NUMBERS) return super.evaluateNumber(interpreter, environment);
+
+            double l;
+            try {
+                l = left.evaluateNumber(interpreter, environment);
+            } catch (UnexpectedType e) {
+                state = GENERIC;
+                return number(add(interpreter, e.value, right.evaluate(interpreter, environment)));
+            }
+
+            try {
+                return l + right.evaluateNumber(interpreter, environment);
+            } catch (UnexpectedType e) {
+                state = GENERIC;
+                return number(add(interpreter, l, e.value));
+            }
+        }
+
+        private Object add(Interpreter interpreter, Object l, Object r) {
+            if (l instanceof Double && r instanceof Double) return (double)l + (double)r;
+            if (l instanceof String && r instanceof String) return interpreter.concatenate((String)l, (String)r);
+            throw new RuntimeError(expr.operator, "Operands must be numbers.");
+        }
+
+        private static double number(Object value) {
+            if (value instanceof Double) return (double)value;
+            throw new UnexpectedType(value);
+        }
+    }
+
+    // - * / only ever work on numbers, so there's nothing to learn
+    private static final class Arithmetic extends ExprNode {
+        private final Token operator;
+        private final ExprNode left;
+        private final ExprNode right;
+
+        Arithmetic(Token operator, ExprNode left, ExprNode right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            return evaluateNumber(interpreter, environment);
+        }
+
+        @Override
+        double evaluateNumber(Interpreter interpreter, Environment environment) {
+            double l;
+            try {
+                l = left.evaluateNumber(interpreter, environment);
+            } catch (UnexpectedType e) {
+                right.evaluate(interpreter, environment);  // Still runs, like in the interpreter
+                throw operandsError(operator);
+            }
+
+            double r;
+            try {
+                r = right.evaluateNumber(interpreter, environment);
+            } catch (UnexpectedType e) {
+                throw operandsError(operator);
+            }
+
+            switch (operator.type) {
+                case MINUS: return l - r;
+                case STAR: return l * r;
+                default: return l / r;
+            }
+        }
+    }
+
+    private static final class Comparison extends ExprNode {
+        private final Token operator;
+        private final ExprNode left;
+        private final ExprNode right;
+
+        Comparison(Token operator, ExprNode left, ExprNode right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            return evaluateCondition(interpreter, environment);
+        }
+
+        @Override
+        boolean evaluateCondition(Interpreter interpreter, Environment environment) {
+            double l;
+            try {
+                l = left.evaluateNumber(interpreter, environment);
+            } catch (UnexpectedType e) {
+                right.evaluate(interpreter, environment);
+                throw operandsError(operator);
+            }
+
+            double r;
+            try {
+                r = right.evaluateNumber(interpreter, environment);
+            } catch (UnexpectedType e) {
+                throw operandsError(operator);
+            }
+
+            switch (operator.type) {
+                case GREATER: return l > r;
+                case GREATER_EQUAL: return l >= r;
+                case LESS: return l < r;
+                default: return l <= r;
+            }
+        }
+    }
+
+    private static RuntimeError operandsError(Token operator) {
+        return new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    private static final class Equality extends ExprNode {
+        private final boolean negated;
+        private final ExprNode left;
+        private final ExprNode right;
+
+        Equality(boolean negated, ExprNode left, ExprNode right) {
+            this.negated = negated;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            return evaluateCondition(interpreter, environment);
+        }
+
+        @Override
+        boolean evaluateCondition(Interpreter interpreter, Environment environment) {
+            Object l = left.evaluate(interpreter, environment);
+            Object r = right.evaluate(interpreter, environment);
+            return negated != Interpreter.isEqual(l, r);
+        }
+    }
+
+    static class Call extends ExprNode implements Site {
+        private final Expr.Call expr;
+        private final ExprNode callee;
+        private final ExprNode[] arguments;
+
+        // The function this site has called every time so far (null before the first call, POLYMORPHIC
+        // once it has called two), and its compiled code once it has some
+        private Object target;
+        private CompiledFunction compiled = null;
+
+        Call(Expr.Call expr, ExprNode callee, ExprNode[] arguments, Object feedback) {
+            this.expr = expr;
+            this.callee = callee;
+            this.arguments = arguments;
+            this.target = feedback;
+        }
+
+        @Override
+        public Object node() {
+            return expr;
+        }
+
+        @Override
+        public Object feedback() {
+            return target;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object function = callee.evaluate(interpreter, environment);
+
+            Object[] values = new Object[arguments.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = arguments[i].evaluate(interpreter, environment);
+            }
+
+            if (!(function instanceof LoxCallable)) {
+                throw new RuntimeError(expr.paren, "Can only call functions and classes");
+            }
+
+            LoxCallable callable = (LoxCallable)function;
+            if (callable.arity() >= 0 && values.length != callable.arity()) {
+                throw new RuntimeError(expr.paren, "Expected " + callable.arity() + " arguments but got " + values.length + ".");
+            }
+
+            if (--interpreter.fuel < 0) interpreter.refuel(expr.paren);
+
+            try {
+                if (function instanceof LoxFunction) return call(interpreter, (LoxFunction)function, Arrays.asList(values));
+                return callable.call(interpreter, Arrays.asList(values));
+            } catch (RuntimeError error) {
+                if (error.token != null) throw error;
+                throw new RuntimeError(expr.paren, error.getMessage());
+            }
+        }
+
+        Object call(Interpreter interpreter, LoxFunction function, List<Object> values) {
+            Stmt.Function declaration = function.declaration;
+            if (target == declaration) {
+                interpreter.inlineCacheHits++;
+                CompiledFunction cached = compiled;
+                if (cached == null || !cached.isValid()) {
+                    cached = interpreter.compiled(declaration);  // Not hot enough yet, or not optimizing at all
+                    compiled = cached;
+                }
+                if (cached != null) return function.call(interpreter, values, cached);
+                return function.call(interpreter, values);
+            }
+
+            interpreter.inlineCacheMisses++;
+            if (target != POLYMORPHIC) {
+                target = target == null ? declaration : POLYMORPHIC;  // The first function seen here, or a second one
+                compiled = null;
+            }
+            return function.call(interpreter, values);
+        }
+    }
+
+    private static final class Get extends ExprNode implements Site {
+        private final Expr.Get expr;
+        private final ExprNode object;
+        private final String name;
+
+        // The class this site has found a method on every time so far, the method, and the assumption that
+        // its instances don't have a field of the same name (null if one does). Read and written as one
+        // object so another thread can't pair one class with another class's method
+        private MethodCache cache = null;
+        private boolean polymorphic;
+        private final Assumption code;
+
+        private static final class MethodCache {
+            final LoxClass klass;
+            final LoxFunction method;
+            final Assumption noField;
+
+            MethodCache(LoxClass klass, LoxFunction method, Assumption noField) {
+                this.klass = klass;
+                this.method = method;
+                this.noField = noField;
+            }
+        }
+
+        Get(Expr.Get expr, ExprNode object, Object feedback, Assumption code) {
+            this.expr = expr;
+            this.object = object;
+            this.code = code;
+            this.name = expr.name.lexeme;
+            this.polymorphic = feedback == POLYMORPHIC;  // A class name from the profile gets seen again soon enough
+        }
+
+        @Override
+        public Object node() {
+            return expr;
+        }
+
+        @Override
+        public Object feedback() {
+            if (polymorphic) return POLYMORPHIC;
+            MethodCache cached = cache;
+            return cached == null ? null : cached.klass.name;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object value = object.evaluate(interpreter, environment);
+            if (!(value instanceof LoxInstance)) {
+                if (value instanceof LoxObject) return ((LoxObject)value).get(expr.name);
+                throw new RuntimeError(expr.name, "Only instances have properties");
+            }
+
+            LoxInstance instance = (LoxInstance)value;
+            MethodCache cached = cache;
+            boolean sameClass = cached != null && cached.klass == instance.klass;
+            if (sameClass && cached.noField != null && cached.noField.isValid()) {
+                interpreter.inlineCacheHits++;
+                return cached.method.bind(instance);
+            }
+
+            Object field = instance.field(name);  // Fields shadow methods, so otherwise they still come first
+            if (field != LoxInstance.ABSENT) return field;  // Not a method lookup, so neither a hit nor a miss
+            if (sameClass) {
+                interpreter.inlineCacheHits++;
+                return cached.method.bind(instance);
+            }
+
+            interpreter.inlineCacheMisses++;
+            LoxFunction method = instance.klass.findMethod(name);
+            if (method == null) throw new RuntimeError(expr.name, "Undefined property '" + name + "'.");
+
+            if (cached != null) polymorphic = true;
+            if (!polymorphic) {
+                Assumption noField = instance.klass.noField(name);
+                if (noField != null) noField.addDependent(code);
+                cache = new MethodCache(instance.klass, method, noField);
+            }
+            return method.bind(instance);
+        }
+    }
+
+    private static final class Set extends ExprNode {
+        private final ExprNode object;
+        private final Token name;
+        private final ExprNode value;
+
+        Set(ExprNode object, Token name, ExprNode value) {
+            this.object = object;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            Object instance = object.evaluate(interpreter, environment);
+            if (!(instance instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Only instances have fields.");
+            }
+
+            Object result = value.evaluate(interpreter, environment);
+            if (((LoxInstance)instance).set(name, result)) interpreter.allocated(instance, MemoryAccount.FIELD);
+            return result;
+        }
+    }
+
+    private static final class Super extends ExprNode {
+        private final Token method;
+        private final int distance;
+        private final int thisDistance;
+
+        Super(Token method, int distance, int thisDistance) {
+            this.method = method;
+            this.distance = distance;
+            this.thisDistance = thisDistance;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Environment environment) {
+            LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
+            LoxInstance object = (LoxInstance)environment.getAt(thisDistance, "this");
+
+            LoxFunction function = superclass.findMethod(method.lexeme);
+            if (function == null) {
+                throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+            }
+            return function.bind(object);
+        }
+    }
+}
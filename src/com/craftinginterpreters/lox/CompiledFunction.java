@@ -0,0 +1,33 @@
+package com.craftinginterpreters.lox;
+
+// A function's body compiled by the ClosureCompiler. LoxFunction.call() runs it in place of the syntax
+// tree, in the same Environment it would have handed the interpreter
+class CompiledFunction {
+    final Stmt.Function declaration;
+    private final ClosureCompiler.StmtNode[] body;
+    private final Assumption valid;
+
+    CompiledFunction(Stmt.Function declaration, ClosureCompiler.StmtNode[] body, Assumption valid) {
+        this.declaration = declaration;
+        this.body = body;
+        this.valid = valid;
+    }
+
+    // False once an assumption it was compiled under has broken (see Assumption)
+    boolean isValid() {
+        return valid.isValid();
+    }
+
+    // Returns the value of the return statement that ended the call, or ClosureCompiler.NORMAL if it ran
+    // off the end
+    Object execute(Interpreter interpreter, Environment environment) {
+        interpreter.environmentCount++;  // The call's environment, which executeBlock() would have counted
+        for (int i = 0; i < body.length; i++) {
+            if (!valid.isValid()) return interpreter.resume(declaration.body.subList(i, body.length), environment);
+
+            Object result = body[i].execute(interpreter, environment);
+            if (result != ClosureCompiler.NORMAL) return result;
+        }
+        return ClosureCompiler.NORMAL;
+    }
+}
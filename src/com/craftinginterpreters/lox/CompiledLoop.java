@@ -0,0 +1,26 @@
+package com.craftinginterpreters.lox;
+
+// A while loop compiled by the ClosureCompiler on its own, so the interpreter can hand it over in the middle
+// of running it (see Interpreter.visitWhileStmt())
+class CompiledLoop {
+    final Stmt.While loop;
+    private final ClosureCompiler.While node;
+    private final Assumption valid;
+
+    CompiledLoop(Stmt.While loop, ClosureCompiler.While node, Assumption valid) {
+        this.loop = loop;
+        this.node = node;
+        this.valid = valid;
+    }
+
+    // False once an assumption it was compiled under has broken (see Assumption)
+    boolean isValid() {
+        return valid.isValid();
+    }
+
+    // Runs the rest of the loop in environment, starting with checking the condition. Returns the value of a
+    // return statement that ended it, or ClosureCompiler.NORMAL
+    Object execute(Interpreter interpreter, Environment environment) {
+        return node.loop(interpreter, environment);
+    }
+}
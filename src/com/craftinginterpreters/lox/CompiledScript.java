@@ -0,0 +1,55 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A script that's been scanned, parsed and resolved once (by LoxEngine.compile()) and can then be run any
+ * number of times, from any number of threads at once. Nothing about running it changes the compiled
+ * form: the interpreter never modifies the syntax tree, and the resolved distances are a read-only map
+ * keyed by the tree's nodes. Each run gets a fresh LoxContext with its own globals, so runs can't see
+ * each other's variables.
+ */
+public class CompiledScript {
+    private final List<Stmt> statements;
+    private final Map<Expr, Integer> locals;
+    private final LoxMetrics metrics;  // The engine's, shared by every run
+
+    CompiledScript(List<Stmt> statements, Map<Expr, Integer> locals, LoxMetrics metrics) {
+        this.statements = statements;
+        this.locals = locals;
+        this.metrics = metrics;
+    }
+
+    public void run() {
+        run(new Bindings());
+    }
+
+    public void run(Bindings bindings) {
+        run(bindings, System.out, System.err);
+    }
+
+    public void run(Bindings bindings, PrintStream out, PrintStream err) {
+        run(bindings, out, err, null);
+    }
+
+    // Throws LoxException if the script stops with a runtime error, including running out of budget (which
+    // can be null for no limits). Whatever it printed before that still went to out. Errors aren't printed
+    // to err, that's left to the caller
+    public void run(Bindings bindings, PrintStream out, PrintStream err, ExecutionBudget budget) {
+        LoxContext context = new LoxContext(out, err, locals, metrics);
+        context.setBudget(budget);
+        bindings.defineIn(context.interpreter.globals);
+
+        try {
+            context.interpreter.run(statements);
+        } catch (RuntimeError error) {
+            LoxEvents.runtimeError(error);
+            metrics.runtimeErrors.increment();
+            throw new LoxException(LoxContext.describe(error), false);
+        } finally {
+            bindings.updateFrom(context.interpreter.globals);
+        }
+    }
+}
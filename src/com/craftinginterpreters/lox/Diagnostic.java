@@ -0,0 +1,24 @@
+package com.craftinginterpreters.lox;
+
+// A compile error that's been recorded instead of printed, so tools can decide what to do with it
+class Diagnostic {
+    final int line;
+    final String where;
+    final String message;
+
+    Diagnostic(int line, String where, String message) {
+        this.line = line;
+        this.where = where;
+        this.message = message;
+    }
+
+    Diagnostic(Token token, String message) {
+        this(token.line, token.type == TokenType.EOF ? " at end" : " at '" + token.lexeme + "'", message);
+    }
+
+    // Same format Lox.report() prints
+    @Override
+    public String toString() {
+        return "[line " + line + "] Error" + where + "; " + message;
+    }
+}
@@ -5,26 +5,68 @@ import java.util.Map;
 
 public class Environment {
 	final Environment enclosing;
-	private final Map<String, Object> values = new HashMap<>();
+	private final Map<String, Object> values;
 
 	Environment() {
-		enclosing = null;
+		this(null, new HashMap<>());
 	}
 
 	Environment(Environment enclosing) {
+		this(enclosing, new HashMap<>());
+	}
+
+	// GlobalEnvironment passes null for values: it keeps the globals in a map of its own, and overrides
+	// everything that would touch this one (the three methods just below, define() and snapshot())
+	Environment(Environment enclosing, Map<String, Object> values) {
 		this.enclosing = enclosing;
+		this.values = values;
+	}
+
+	// Whether name is defined directly in this environment (not the enclosing ones)
+	boolean contains(String name) {
+		return values.containsKey(name);
+	}
+
+	// The value of a variable defined directly in this environment
+	Object read(String name) {
+		return values.get(name);
+	}
+
+	// Set a variable directly in this environment
+	void write(String name, Object value) {
+		values.put(name, value);
 	}
 
 	void define(String name, Object value) {
 		values.put(name, value);
 	}
 
+	// Every variable defined directly in this environment (not the enclosing ones) and its value
+	Map<String, Object> snapshot() {
+		return new HashMap<>(values);
+	}
+
 	Object getAt(int distance, String name) {
-		return ancestor(distance).values.get(name);
+		return ancestor(distance).read(name);
 	}
 
 	void assignAt(int distance, Token name, Object value) {
-		ancestor(distance).values.put(name.lexeme, value);
+		ancestor(distance).write(name.lexeme, value);
+	}
+
+	// The rest of assign() for a variable whose own environment, distance steps away, already has the new
+	// value (-1 for a global, which is past all of them). The interpreter follows every assignment with an
+	// assign() from the current environment, and that only changes anything in an environment in between
+	// that has a variable of the same name
+	void assignBetween(int distance, Token name, Object value) {
+		Environment environment = this;
+		for (int i = 0; distance < 0 ? environment.enclosing != null : i < distance; i++) {
+			if (environment.contains(name.lexeme)) {
+				environment.write(name.lexeme, value);
+				return;
+			}
+			environment = environment.enclosing;
+		}
 	}
 
 	// Get the environment "distance" steps away
@@ -38,8 +80,8 @@ public class Environment {
 	}
 
 	Object get(Token name) {
-		if (values.containsKey(name.lexeme)) {
-			return values.get(name.lexeme);
+		if (contains(name.lexeme)) {
+			return read(name.lexeme);
 		}
 
 		if (enclosing != null) {
@@ -60,8 +102,8 @@ public class Environment {
 	// compared to define, assign can look through enclosing environments to reassign a
 	// previously declared variable
 	void assign(Token name, Object value) {
-		if (values.containsKey(name.lexeme)) {
-			values.put(name.lexeme, value);
+		if (contains(name.lexeme)) {
+			write(name.lexeme, value);
 			return;
 		}
 
@@ -0,0 +1,15 @@
+package com.craftinginterpreters.lox;
+
+// Where the Scanner, Parser and Resolver send compile errors. LoxContext prints them, but anything that
+// just wants to collect them can pass a List<Diagnostic>'s add method
+interface ErrorReporter {
+    void report(Diagnostic diagnostic);
+
+    default void error(int line, String message) {
+        report(new Diagnostic(line, "", message));
+    }
+
+    default void error(Token token, String message) {
+        report(new Diagnostic(token, message));
+    }
+}
@@ -0,0 +1,76 @@
+package com.craftinginterpreters.lox;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Limits on how much a script gets to run, for running code you don't trust. Any mix of:
+ *
+ *   maxSteps(n)     - a step is one function call or one loop iteration (every way a script can keep
+ *                     running for long goes through one of those)
+ *   timeout(d)      - wall-clock time, counted from when timeout() is called
+ *   maxMemory(n)    - bytes the script can hold on to, estimated (see MemoryAccount)
+ *   cancel()        - stop the script from another thread
+ *
+ * Running out raises a runtime error in the script, which ends it like any other one: CompiledScript
+ * throws it as a LoxException and LoxContext.run() reports it. The budget is shared by everything the
+ * script starts (spawn(), parallelMap()), so one budget covers the whole run. Use a new one per run.
+ *
+ * Checking is cheap enough to leave on. Each Interpreter counts steps down in a plain int and only comes
+ * here every CHUNK steps to take more, which is when the flag, the clock and the shared step count get
+ * looked at. So a cancel or a timeout is noticed within a few thousand steps, usually well under a
+ * millisecond. A script blocked on a channel or join() isn't taking steps and won't notice until it's
+ * woken up.
+ */
+public class ExecutionBudget {
+    static final int CHUNK = 4096;
+
+    private long maxSteps = Long.MAX_VALUE;
+    private long deadline = 0;  // System.nanoTime() value, 0 for none
+    private long maxMemory = 0;  // 0 for none
+    private volatile boolean cancelled = false;
+
+    private final AtomicLong steps = new AtomicLong();
+
+    public ExecutionBudget maxSteps(long maxSteps) {
+        this.maxSteps = maxSteps;
+        return this;
+    }
+
+    public ExecutionBudget timeout(Duration timeout) {
+        this.deadline = System.nanoTime() + timeout.toNanos();
+        if (deadline == 0) deadline = 1;
+        return this;
+    }
+
+    public ExecutionBudget maxMemory(long bytes) {
+        this.maxMemory = bytes;
+        return this;
+    }
+
+    long maxMemory() {
+        return maxMemory;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // Steps taken so far, give or take the unused part of each interpreter's last chunk
+    public long steps() {
+        return Math.min(steps.get(), maxSteps);
+    }
+
+    // Called every CHUNK steps. Returns how many more steps the caller may take (at least one), or throws
+    // if the script has to stop. where is for the error's line number and can be null
+    int take(Token where) {
+        if (cancelled) throw new RuntimeError(where, "Script was cancelled.");
+        if (deadline != 0 && System.nanoTime() - deadline > 0) {
+            throw new RuntimeError(where, "Script ran longer than its time limit.");
+        }
+
+        long before = steps.getAndAdd(CHUNK);
+        if (before >= maxSteps) throw new RuntimeError(where, "Script ran out of steps.");
+        return (int)Math.min(CHUNK, maxSteps - before);
+    }
+}
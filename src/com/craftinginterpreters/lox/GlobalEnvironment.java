@@ -0,0 +1,102 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * The global scope, which every task and parallelMap() worker shares. A plain HashMap can be corrupted by
+ * one thread resizing it while another reads or writes, so globals live in a ConcurrentHashMap instead:
+ *
+ *   - Reads never lock and never see a half-written entry. A get is a couple of volatile loads, about
+ *     the same as HashMap.get(), which matters because every call to a global function starts with one.
+ *   - define() and assignment are atomic per variable and never lose another variable's update. They
+ *     only lock the one bin the name hashes to, so writers to different globals don't contend.
+ *   - Every write happens-before any read that sees it. A task that reads a global after another task
+ *     assigned it sees the new value (or the old one, if it read first), never anything in between.
+ *   - Assigning checks and writes in one step (replace()), so it can't resurrect a variable or race a
+ *     define() of the same name into a lost write.
+ *
+ * Only globals get this. Local scopes belong to one call and aren't shared unless a closure captures them.
+ * This map is the only one: Environment's own is left null, and every method of Environment that reads or
+ * writes variables goes through contains()/read()/write(), which are overridden here.
+ */
+class GlobalEnvironment extends Environment {
+    private static final Object NIL = new Object();  // ConcurrentHashMap can't hold null
+
+    private final ConcurrentHashMap<String, Object> variables = new ConcurrentHashMap<>();
+
+    // Assumptions that a global keeps its value (see stable()), and the globals that have broken one
+    private final ConcurrentHashMap<String, Assumption> stable = new ConcurrentHashMap<>();
+    private final Set<String> unstable = ConcurrentHashMap.newKeySet();
+
+    GlobalEnvironment() {
+        super(null, null);
+    }
+
+    @Override
+    boolean contains(String name) {
+        return variables.containsKey(name);
+    }
+
+    @Override
+    Object read(String name) {
+        Object value = variables.get(name);
+        return value == NIL ? null : value;
+    }
+
+    @Override
+    void write(String name, Object value) {
+        variables.put(name, value == null ? NIL : value);
+        changed(name);
+    }
+
+    @Override
+    void define(String name, Object value) {
+        variables.put(name, value == null ? NIL : value);
+        changed(name);
+    }
+
+    @Override
+    Object get(Token name) {
+        Object value = variables.get(name.lexeme);
+        if (value == null) throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+
+        return value == NIL ? null : value;
+    }
+
+    @Override
+    void assign(Token name, Object value) {
+        if (variables.replace(name.lexeme, value == null ? NIL : value) == null) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        }
+        changed(name.lexeme);
+    }
+
+    // An assumption that name keeps the value it has now, for compiled code that wants to hold on to it
+    // (see Assumption). Get it before reading the value. null for a global that has already changed while
+    // some code was counting on it, since it's likely to change again
+    Assumption stable(String name) {
+        if (unstable.contains(name)) return null;
+        return stable.computeIfAbsent(name, n -> new Assumption("global " + n + " is stable"));
+    }
+
+    private void changed(String name) {
+        if (stable.isEmpty()) return;
+
+        Assumption assumption = stable.remove(name);
+        if (assumption != null) {
+            unstable.add(name);
+            assumption.invalidate();
+        }
+    }
+
+    // Every global and its value right now, e.g. to hand a script's results back to the code embedding it
+    @Override
+    Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new HashMap<>();
+        variables.forEach((name, value) -> snapshot.put(name, value == NIL ? null : value));
+        return snapshot;
+    }
+}
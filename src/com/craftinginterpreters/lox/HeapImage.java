@@ -0,0 +1,319 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Saves everything reachable from a context's globals to a file and loads it into a fresh context, so a
+ * big prelude of classes and functions can be run once (lox --snapshot prelude.img prelude.lox) and then
+ * restored in a fraction of the time before every script that needs it (lox --image prelude.img script.lox).
+ *
+ * The image holds the object graph, not the source: environments (each pointing at the one it's nested
+ * in, ending at the globals), functions (their declaration, the environment they closed over and whether
+ * they're an initializer), classes (superclass and methods) and instances (class and fields). Objects are
+ * written once each and referred to by id, so sharing and cycles (a closure that can see itself, an
+ * instance holding itself) come back exactly as they were. Function declarations go through
+ * AstSerializer along with their resolved scope distances, and each one is only written once no matter
+ * how many closures or bound methods share it.
+ *
+ * The file is laid out so loading never has to patch anything up:
+ *
+ *   header:    MAGIC, VERSION
+ *   objects:   count, then for every object except the globals (always id 0), its kind and whatever its
+ *              constructor needs. Those only ever refer to objects with a lower id
+ *   contents:  for every object, its variables, methods or fields. These can refer to any id
+ *
+ * Values are nil, booleans, numbers and strings written inline, references to objects by id, and natives
+ * (clock, spawn, ...) by the name of the global they're defined as. Anything else (a channel, a running
+ * task) can't be saved, and writing the image fails.
+ */
+class HeapImage {
+    private static final int MAGIC = 0x4c4f5849;  // "LOXI"
+    private static final int VERSION = 2;  // Bump whenever this format or AstSerializer's changes
+
+    // Object kinds
+    private static final int ENVIRONMENT = 1;
+    private static final int FUNCTION = 2;
+    private static final int CLASS = 3;
+    private static final int INSTANCE = 4;
+
+    // Value tags
+    private static final int NIL_VALUE = 0;
+    private static final int TRUE_VALUE = 1;
+    private static final int FALSE_VALUE = 2;
+    private static final int NUMBER_VALUE = 3;
+    private static final int STRING_VALUE = 4;
+    private static final int OBJECT_VALUE = 5;
+    private static final int NATIVE_VALUE = 6;
+
+    static void write(LoxContext context, Path path) throws IOException {
+        Interpreter interpreter = context.interpreter;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            new ImageWriter(out, interpreter.globals, interpreter.locals, interpreter.natives).write();
+        }
+    }
+
+    // Only call this on a context nothing has run in yet
+    static void read(Path path, LoxContext context) throws IOException {
+        Interpreter interpreter = context.interpreter;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            new ImageReader(in, interpreter.globals, interpreter.locals, interpreter.natives).read();
+        }
+    }
+
+    private static class ImageWriter {
+        private final DataOutputStream out;
+        private final GlobalEnvironment globals;
+        private final AstSerializer.Writer declarations;
+
+        private final Map<Object, String> natives = new IdentityHashMap<>();
+        private final List<Object> objects = new ArrayList<>();
+        private final Map<Object, Integer> ids = new IdentityHashMap<>();
+        private final Map<Stmt.Function, Integer> declarationIds = new IdentityHashMap<>();
+        private final Deque<Object> unvisited = new ArrayDeque<>();
+
+        ImageWriter(DataOutputStream out, GlobalEnvironment globals, Map<Expr, Integer> locals, Map<String, LoxCallable> natives) {
+            this.out = out;
+            this.globals = globals;
+            this.declarations = new AstSerializer.Writer(out, locals);
+
+            natives.forEach((name, value) -> this.natives.put(value, name));
+        }
+
+        void write() throws IOException {
+            // Number everything first, so the constructor section can be written in an order that loads
+            add(globals);
+            while (!unvisited.isEmpty()) {
+                for (Object value : contents(unvisited.pop()).values()) {
+                    visit(value);
+                }
+            }
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(objects.size());
+            for (int id = 1; id < objects.size(); id++) {
+                writeConstructor(objects.get(id));
+            }
+
+            for (Object object : objects) {
+                Map<String, ?> contents = contents(object);
+                out.writeInt(contents.size());
+                for (Map.Entry<String, ?> entry : contents.entrySet()) {
+                    writeString(entry.getKey());
+                    writeValue(entry.getValue());
+                }
+            }
+        }
+
+        private void visit(Object value) throws IOException {
+            if (value == null || value instanceof Boolean || value instanceof Double || value instanceof String) return;
+            if (natives.containsKey(value)) return;
+
+            if (value instanceof Environment || value instanceof LoxFunction ||
+                    value instanceof LoxClass || value instanceof LoxInstance) {
+                add(value);
+                return;
+            }
+
+            throw new IOException("Can't save " + value + " in an image.");
+        }
+
+        // Give an object its id, after whatever its constructor needs
+        private void add(Object object) {
+            if (ids.containsKey(object)) return;
+
+            if (object instanceof LoxFunction) {
+                add(((LoxFunction)object).closure);
+            } else if (object instanceof LoxClass) {
+                LoxClass superclass = ((LoxClass)object).superclass;
+                if (superclass != null) add(superclass);
+            } else if (object instanceof LoxInstance) {
+                add(((LoxInstance)object).klass);
+            } else if (object != globals) {
+                add(((Environment)object).enclosing);
+            }
+
+            ids.put(object, objects.size());
+            objects.add(object);
+            unvisited.push(object);
+        }
+
+        private void writeConstructor(Object object) throws IOException {
+            if (object instanceof LoxFunction) {
+                LoxFunction function = (LoxFunction)object;
+                out.writeByte(FUNCTION);
+
+                Integer declaration = declarationIds.get(function.declaration);
+                if (declaration == null) {
+                    out.writeInt(-1);  // New declaration, its tree follows
+                    declarationIds.put(function.declaration, declarationIds.size());
+                    declarations.writeStmt(function.declaration);
+                } else {
+                    out.writeInt(declaration);
+                }
+
+                out.writeInt(ids.get(function.closure));
+                out.writeBoolean(function.isInitializer);
+            } else if (object instanceof LoxClass) {
+                LoxClass klass = (LoxClass)object;
+                out.writeByte(CLASS);
+                writeString(klass.name);
+                out.writeInt(klass.superclass == null ? -1 : ids.get(klass.superclass));
+            } else if (object instanceof LoxInstance) {
+                out.writeByte(INSTANCE);
+                out.writeInt(ids.get(((LoxInstance)object).klass));
+            } else {
+                out.writeByte(ENVIRONMENT);
+                out.writeInt(ids.get(((Environment)object).enclosing));
+            }
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NIL_VALUE);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean)value ? TRUE_VALUE : FALSE_VALUE);
+            } else if (value instanceof Double) {
+                out.writeByte(NUMBER_VALUE);
+                out.writeDouble((Double)value);
+            } else if (value instanceof String) {
+                out.writeByte(STRING_VALUE);
+                writeString((String)value);
+            } else if (natives.containsKey(value)) {
+                out.writeByte(NATIVE_VALUE);
+                writeString(natives.get(value));
+            } else {
+                out.writeByte(OBJECT_VALUE);
+                out.writeInt(ids.get(value));
+            }
+        }
+
+        // writeUTF() can't do strings over 64K
+        private void writeString(String string) throws IOException {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static class ImageReader {
+        private final DataInputStream in;
+        private final GlobalEnvironment globals;
+        private final AstSerializer.Reader declarations;
+
+        private final Map<String, LoxCallable> natives;
+        private final List<Stmt.Function> declarationList = new ArrayList<>();
+
+        ImageReader(DataInputStream in, GlobalEnvironment globals, Map<Expr, Integer> locals, Map<String, LoxCallable> natives) {
+            this.in = in;
+            this.globals = globals;
+            this.declarations = new AstSerializer.Reader(in, locals);
+            this.natives = natives;
+        }
+
+        void read() throws IOException {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an image, or one written by a different version.");
+            }
+
+            Object[] objects = new Object[in.readInt()];
+            objects[0] = globals;
+            for (int id = 1; id < objects.length; id++) {
+                objects[id] = readConstructor(objects);
+            }
+
+            for (Object object : objects) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String name = readString();
+                    Object value = readValue(objects);
+
+                    if (object instanceof Environment) {
+                        ((Environment)object).define(name, value);
+                    } else if (object instanceof LoxClass) {
+                        ((LoxClass)object).methods.put(name, (LoxFunction)value);
+                    } else {
+                        ((LoxInstance)object).set(name, value);
+                    }
+                }
+            }
+        }
+
+        private Object readConstructor(Object[] objects) throws IOException {
+            int kind = in.readUnsignedByte();
+            switch (kind) {
+                case ENVIRONMENT:
+                    return new Environment((Environment)objects[in.readInt()]);
+                case FUNCTION: {
+                    int id = in.readInt();
+                    Stmt.Function declaration;
+                    if (id == -1) {
+                        declaration = (Stmt.Function)declarations.readStmt();
+                        declarationList.add(declaration);
+                    } else {
+                        declaration = declarationList.get(id);
+                    }
+                    Environment closure = (Environment)objects[in.readInt()];
+                    return new LoxFunction(declaration, closure, in.readBoolean());
+                }
+                case CLASS: {
+                    String name = readString();
+                    int superclass = in.readInt();
+                    return new LoxClass(name, superclass == -1 ? null : (LoxClass)objects[superclass], new HashMap<>());
+                }
+                case INSTANCE:
+                    return new LoxInstance((LoxClass)objects[in.readInt()]);
+                default:
+                    throw new IOException("Corrupt image: unknown object kind " + kind + ".");
+            }
+        }
+
+        private Object readValue(Object[] objects) throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NIL_VALUE: return null;
+                case TRUE_VALUE: return true;
+                case FALSE_VALUE: return false;
+                case NUMBER_VALUE: return in.readDouble();
+                case STRING_VALUE: return readString();
+                case OBJECT_VALUE: return objects[in.readInt()];
+                case NATIVE_VALUE: {
+                    String name = readString();
+                    Object value = natives.get(name);
+                    if (value == null) throw new IOException("Image needs a native '" + name + "' this version doesn't have.");
+                    return value;
+                }
+                default:
+                    throw new IOException("Corrupt image: unknown value tag " + tag + ".");
+            }
+        }
+
+        private String readString() throws IOException {
+            return new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+        }
+    }
+
+    // Sorted, so the same heap always makes the same image
+    private static Map<String, ?> contents(Object object) {
+        if (object instanceof Environment) return new TreeMap<>(((Environment)object).snapshot());
+        if (object instanceof LoxClass) return new TreeMap<>(((LoxClass)object).methods);
+        if (object instanceof LoxInstance) return new TreeMap<>(((LoxInstance)object).snapshot());
+        return new TreeMap<>();  // Functions have nothing that isn't passed to their constructor
+    }
+}
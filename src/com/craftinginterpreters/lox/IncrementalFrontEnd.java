@@ -0,0 +1,223 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Front end for a file that's being edited (e.g. by a language server). Instead of scanning, parsing and
+ * resolving the whole file after every keystroke, it keeps the file cut into top-level statements (see
+ * SourceSplitter) and only redoes the ones an edit touched.
+ *
+ * That works because top-level statements don't depend on each other until runtime: the Resolver doesn't
+ * track the global scope, so each one resolves the same way no matter what's around it. An edit re-splits
+ * from the first damaged statement until the splitter lands back on the start of a statement the edit
+ * didn't touch, and everything from there on is reused as is.
+ *
+ * Edits that add or remove lines shift the line numbers of everything after them. Diagnostics are cheap
+ * to shift, but tokens are immutable and the trees are made of them, so a statement that moved gets a
+ * new tree. That's only done when somebody actually asks for it through statements(), and only the
+ * parser and resolver run again, over copies of the tokens scanned before with their new lines. Trees
+ * that statements() handed out earlier are never changed.
+ */
+class IncrementalFrontEnd {
+    private static class Segment {
+        int start;  // Offsets into the source, moved by edits before them
+        int end;
+        int line;  // Line the segment starts on now
+        int builtLine;  // Line the segment started on when its tree was built
+
+        List<Token> tokens;
+        List<Diagnostic> scanDiagnostics;
+        List<Stmt> statements;
+        Map<Expr, Integer> locals;
+        List<Diagnostic> diagnostics;  // Scanner's, parser's and resolver's
+    }
+
+    private String source;
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<Expr, Integer> locals = new HashMap<>();  // Every segment's, for depth()
+
+    IncrementalFrontEnd(String source) {
+        this.source = source;
+
+        SourceSplitter splitter = new SourceSplitter(source, 0, source.length(), 1);
+        do {  // Always at least one segment, even for an empty file, so edits have somewhere to start
+            int start = splitter.position();
+            int line = splitter.line();
+            Segment segment = build(start, splitter.next(), line);
+            segments.add(segment);
+            locals.putAll(segment.locals);
+        } while (!splitter.isAtEnd());
+    }
+
+    String source() {
+        return source;
+    }
+
+    // Replace length characters at offset with text
+    void edit(int offset, int length, String text) {
+        int removedEnd = offset + length;
+        int delta = text.length() - length;
+        int lineDelta = countLines(text, 0, text.length()) - countLines(source, offset, removedEnd);
+
+        // A segment that ends right where the edit starts is damaged too, since typing "else" there glues
+        // the next statement onto it. For the same reason, so is the one before a segment whose first word
+        // (or the whitespace and comments before it) is being edited
+        int first = firstEndingAtOrAfter(offset);
+        if (first > 0) {
+            Segment segment = segments.get(first);
+            if (offset <= SourceSplitter.firstWordEnd(source, segment.start, segment.end)) first--;
+        }
+
+        // Segments that started at or after the removed text still have the same text, so once the splitter
+        // ends a segment exactly where one of those starts, it's back in step and the rest can be reused
+        int next = first;
+        while (next < segments.size() && segments.get(next).start < removedEnd) next++;
+
+        source = source.substring(0, offset) + text + source.substring(removedEnd);
+        Segment damaged = segments.get(first);
+        SourceSplitter splitter = new SourceSplitter(source, damaged.start, source.length(), damaged.line);
+        List<Segment> rebuilt = new ArrayList<>();
+        do {
+            int start = splitter.position();
+            int line = splitter.line();
+            int end = splitter.next();
+            rebuilt.add(build(start, end, line));
+
+            if (splitter.isAtEnd()) {
+                next = segments.size();
+                break;
+            }
+
+            while (next < segments.size() && segments.get(next).start + delta < end) next++;
+        } while (next == segments.size() || segments.get(next).start + delta != splitter.position());
+
+        for (int i = next; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            segment.start += delta;
+            segment.end += delta;
+            segment.line += lineDelta;
+        }
+
+        List<Segment> replaced = segments.subList(first, next);
+        for (Segment segment : replaced) {
+            for (Expr expr : segment.locals.keySet()) locals.remove(expr);
+        }
+        replaced.clear();
+        segments.addAll(first, rebuilt);
+        for (Segment segment : rebuilt) {
+            locals.putAll(segment.locals);
+        }
+    }
+
+    // The whole file's statements, with null for any that didn't parse (same as Parser.parse())
+    List<Stmt> statements() {
+        List<Stmt> statements = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.line != segment.builtLine) shift(segment);
+            statements.addAll(segment.statements);
+        }
+        return statements;
+    }
+
+    // Errors from the scanner, parser and resolver, in file order
+    List<Diagnostic> diagnostics() {
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        for (Segment segment : segments) {
+            int shift = segment.line - segment.builtLine;
+            for (Diagnostic diagnostic : segment.diagnostics) {
+                if (shift == 0) {
+                    diagnostics.add(diagnostic);
+                } else {
+                    diagnostics.add(new Diagnostic(diagnostic.line + shift, diagnostic.where, diagnostic.message));
+                }
+            }
+        }
+        return diagnostics;
+    }
+
+    // Resolved scope distance for a variable expression from statements(), or null if it's global
+    Integer depth(Expr expr) {
+        return locals.get(expr);
+    }
+
+    // The whole file's scope distances, the same map the Resolver would have filled in for statements()
+    Map<Expr, Integer> locals() {
+        return locals;
+    }
+
+    private Segment build(int start, int end, int line) {
+        Segment segment = new Segment();
+        segment.start = start;
+        segment.end = end;
+        segment.line = line;
+
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        List<Token> tokens = new Scanner(source, start, end, line, diagnostics::add).scanTokens();
+        analyze(segment, tokens, diagnostics);
+        return segment;
+    }
+
+    // Parse and resolve tokens into segment's tree, starting on the line it's on now
+    private static void analyze(Segment segment, List<Token> tokens, List<Diagnostic> scanDiagnostics) {
+        List<Diagnostic> diagnostics = new ArrayList<>(scanDiagnostics);
+        ParseResult parsed = new Parser(tokens, null).parseWithDiagnostics();  // Never reports, it records
+        diagnostics.addAll(parsed.diagnostics);
+
+        // Like Lox.run(), don't resolve a tree with holes in it. That only holds back this one segment though
+        Map<Expr, Integer> locals = new HashMap<>();
+        if (!parsed.hasErrors()) {
+            new Resolver(locals, diagnostics::add).resolve(parsed.statements);
+        }
+
+        segment.builtLine = segment.line;
+        segment.tokens = tokens;
+        segment.scanDiagnostics = scanDiagnostics;
+        segment.statements = parsed.statements;
+        segment.locals = locals;
+        segment.diagnostics = diagnostics;
+    }
+
+    // Rebuild segment's tree for the line it starts on now, from copies of its tokens moved to their new
+    // lines
+    private void shift(Segment segment) {
+        int shift = segment.line - segment.builtLine;
+        List<Token> tokens = new ArrayList<>(segment.tokens.size());
+        for (Token token : segment.tokens) {
+            tokens.add(new Token(token.type, token.lexeme, token.literal, token.line + shift));
+        }
+        List<Diagnostic> scanDiagnostics = new ArrayList<>();
+        for (Diagnostic diagnostic : segment.scanDiagnostics) {
+            scanDiagnostics.add(new Diagnostic(diagnostic.line + shift, diagnostic.where, diagnostic.message));
+        }
+
+        for (Expr expr : segment.locals.keySet()) locals.remove(expr);
+        analyze(segment, tokens, scanDiagnostics);
+        locals.putAll(segment.locals);
+    }
+
+    // Binary search, since segments are sorted and a big file has thousands of them
+    private int firstEndingAtOrAfter(int offset) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (segments.get(mid).end < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int countLines(String text, int start, int end) {
+        int lines = 0;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == '\n') lines++;
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,239 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * An Interpreter that counts how many times every Stmt and Expr runs and how much time it spends in
+ * each one itself, not counting the nodes under it (lox --hotspots <script>). On top of that it counts
+ * calls per function and instances made per class at every call site. report() prints the hottest lines
+ * and functions from all of that.
+ *
+ * It works by overriding execute() and evaluate(), which every node goes through, so the plain
+ * Interpreter has no extra code in it for this at all. Self time comes from keeping a running total of
+ * all the self time recorded so far: whatever a node's children recorded while it ran is exactly what it
+ * has to subtract from its own elapsed time.
+ *
+ * Reading the clock twice per node is slow compared to most nodes, so a script runs several times
+ * slower like this and the times are only good for comparing lines against each other. Forked
+ * interpreters (tasks, parallelMap() workers) are instrumented too and count into their own tables,
+ * which report() adds up.
+ */
+class InstrumentingInterpreter extends Interpreter {
+    private static class NodeCount {
+        final Stmt.Function function;  // The function the node is in, null for top-level code
+        final int line;
+        long count = 0;
+        long selfNanos = 0;
+
+        NodeCount(Stmt.Function function, int line) {
+            this.function = function;
+            this.line = line;
+        }
+    }
+
+    // What one interpreter counted. Only its own thread writes it, report() reads it once they're done
+    private static class Counts {
+        final Map<Object, NodeCount> nodes = new IdentityHashMap<>();  // Node objects, not equal ones
+        final Map<Stmt.Function, long[]> calls = new IdentityHashMap<>();
+        final Map<Expr.Call, Map<LoxClass, long[]>> instances = new IdentityHashMap<>();
+    }
+
+    private final List<Counts> all;  // Shared with every fork
+    private final Counts counts = new Counts();
+
+    private long recorded = 0;  // Total self time recorded by this interpreter so far
+    private int line = 0;  // Line of the node running now, for nodes that don't have one of their own
+    private Expr.Call callSite = null;  // Innermost call being evaluated, where an instance gets made
+
+    InstrumentingInterpreter(LoxContext context, Map<Expr, Integer> locals) {
+        super(context, locals);
+        this.all = Collections.synchronizedList(new ArrayList<>());
+        all.add(counts);
+    }
+
+    private InstrumentingInterpreter(InstrumentingInterpreter parent) {
+        super(parent);
+        this.all = parent.all;
+        all.add(counts);
+    }
+
+    @Override
+    Interpreter fork() {
+        return new InstrumentingInterpreter(this);
+    }
+
+    @Override
+    void execute(Stmt stmt) {
+        NodeCount node = count(stmt);
+        int outerLine = line;
+        line = node.line;
+
+        long before = recorded;
+        long start = System.nanoTime();
+        try {
+            super.execute(stmt);
+        } finally {
+            record(node, System.nanoTime() - start, before);
+            line = outerLine;
+        }
+    }
+
+    @Override
+    Object evaluate(Expr expr) {
+        NodeCount node = count(expr);
+        int outerLine = line;
+        line = node.line;
+        Expr.Call outerCall = callSite;
+        if (expr instanceof Expr.Call) callSite = (Expr.Call)expr;
+
+        long before = recorded;
+        long start = System.nanoTime();
+        try {
+            return super.evaluate(expr);
+        } finally {
+            record(node, System.nanoTime() - start, before);
+            line = outerLine;
+            callSite = outerCall;
+        }
+    }
+
+    @Override
+    void enter(Stmt.Function function) {
+        super.enter(function);
+        counts.calls.computeIfAbsent(function, f -> new long[1])[0]++;
+    }
+
+    @Override
+    void instantiated(LoxInstance instance) {
+        super.instantiated(instance);
+        counts.instances.computeIfAbsent(callSite, c -> new HashMap<>())
+            .computeIfAbsent(instance.klass, k -> new long[1])[0]++;
+    }
+
+    private NodeCount count(Object node) {
+        NodeCount counted = counts.nodes.get(node);
+        if (counted == null) {
+            int nodeLine = lineOf(node);
+            counted = new NodeCount(depth > 0 ? frames[depth - 1] : null, nodeLine > 0 ? nodeLine : line);
+            counts.nodes.put(node, counted);
+        }
+        counted.count++;
+        return counted;
+    }
+
+    private void record(NodeCount node, long elapsed, long before) {
+        long self = elapsed - (recorded - before);  // Everything recorded since before was by nodes under this one
+        node.selfNanos += self;
+        recorded += self;
+    }
+
+    // The line a node starts on, or 0 if it has no token to tell (literals, empty blocks)
+    private static int lineOf(Object node) {
+        if (node instanceof Expr.Assign) return ((Expr.Assign)node).name.line;
+        if (node instanceof Expr.Binary) return ((Expr.Binary)node).operator.line;
+        if (node instanceof Expr.Call) return ((Expr.Call)node).paren.line;
+        if (node instanceof Expr.Get) return ((Expr.Get)node).name.line;
+        if (node instanceof Expr.Grouping) return lineOf(((Expr.Grouping)node).expression);
+        if (node instanceof Expr.Logical) return ((Expr.Logical)node).operator.line;
+        if (node instanceof Expr.Set) return ((Expr.Set)node).name.line;
+        if (node instanceof Expr.Super) return ((Expr.Super)node).keyword.line;
+        if (node instanceof Expr.This) return ((Expr.This)node).keyword.line;
+        if (node instanceof Expr.Unary) return ((Expr.Unary)node).operator.line;
+        if (node instanceof Expr.Variable) return ((Expr.Variable)node).name.line;
+
+        if (node instanceof Stmt.Block) {
+            List<Stmt> statements = ((Stmt.Block)node).statements;
+            return statements.isEmpty() ? 0 : lineOf(statements.get(0));
+        }
+        if (node instanceof Stmt.Class) return ((Stmt.Class)node).name.line;
+        if (node instanceof Stmt.Expression) return lineOf(((Stmt.Expression)node).expression);
+        if (node instanceof Stmt.Function) return ((Stmt.Function)node).name.line;
+        if (node instanceof Stmt.If) return lineOf(((Stmt.If)node).condition);
+        if (node instanceof Stmt.Print) return lineOf(((Stmt.Print)node).expression);
+        if (node instanceof Stmt.Return) return ((Stmt.Return)node).keyword.line;
+        if (node instanceof Stmt.Var) return ((Stmt.Var)node).name.line;
+        if (node instanceof Stmt.While) return ((Stmt.While)node).keyword.line;
+        return 0;
+    }
+
+    // Print the top hottest lines and functions by self time, every function's call count and the
+    // instances made at each call site. Call it once the script (and any tasks it started) has finished
+    void report(PrintStream out, int top) {
+        Map<Integer, long[]> lines = new HashMap<>();  // {count, self time}
+        Map<Stmt.Function, long[]> functions = new IdentityHashMap<>();  // {calls, self time}
+        Map<Expr.Call, Map<LoxClass, long[]>> instances = new IdentityHashMap<>();
+        long total = 0;
+
+        synchronized (all) {
+            for (Counts counted : all) {
+                for (NodeCount node : counted.nodes.values()) {
+                    long[] line = lines.computeIfAbsent(node.line, l -> new long[2]);
+                    line[0] += node.count;
+                    line[1] += node.selfNanos;
+                    functions.computeIfAbsent(node.function, f -> new long[2])[1] += node.selfNanos;
+                    total += node.selfNanos;
+                }
+                counted.calls.forEach((function, calls) ->
+                    functions.computeIfAbsent(function, f -> new long[2])[0] += calls[0]);
+                counted.instances.forEach((site, classes) -> classes.forEach((klass, made) ->
+                    instances.computeIfAbsent(site, s -> new HashMap<>())
+                        .computeIfAbsent(klass, k -> new long[1])[0] += made[0]));
+            }
+        }
+
+        out.println("Hottest lines (self time):");
+        out.printf("  %8s %12s %10s %6s%n", "line", "count", "ms", "%");
+        for (Map.Entry<Integer, long[]> entry : hottest(lines, 1, top)) {
+            long[] line = entry.getValue();
+            out.printf("  %8s %12d %10.1f %5.1f%%%n", entry.getKey() > 0 ? entry.getKey() : "?", line[0],
+                line[1] / 1e6, percent(line[1], total));
+        }
+
+        out.println();
+        out.println("Hottest functions (self time):");
+        out.printf("  %-24s %12s %10s %6s%n", "function", "calls", "ms", "%");
+        for (Map.Entry<Stmt.Function, long[]> entry : hottest(functions, 1, top)) {
+            long[] function = entry.getValue();
+            out.printf("  %-24s %12d %10.1f %5.1f%%%n", name(entry.getKey()), function[0],
+                function[1] / 1e6, percent(function[1], total));
+        }
+
+        out.println();
+        out.println("Calls per function:");
+        for (Map.Entry<Stmt.Function, long[]> entry : hottest(functions, 0, Integer.MAX_VALUE)) {
+            if (entry.getKey() != null) out.printf("  %-24s %12d%n", name(entry.getKey()), entry.getValue()[0]);
+        }
+
+        out.println();
+        out.println("Instances per call site:");
+        Map<String, long[]> sites = new HashMap<>();  // Two sites on one line making the same class count together
+        instances.forEach((site, classes) -> classes.forEach((klass, made) -> sites.computeIfAbsent(
+            klass.name + (site == null ? " (native)" : " line " + site.paren.line), s -> new long[1])[0] += made[0]));
+        for (Map.Entry<String, long[]> entry : hottest(sites, 0, Integer.MAX_VALUE)) {
+            out.printf("  %-24s %12d%n", entry.getKey(), entry.getValue()[0]);
+        }
+    }
+
+    // The top entries by the value at index, biggest first
+    private static <K> List<Map.Entry<K, long[]>> hottest(Map<K, long[]> counts, int index, int top) {
+        List<Map.Entry<K, long[]>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<K, long[]> entry) -> entry.getValue()[index]).reversed());
+        return entries.subList(0, Math.min(top, entries.size()));
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : 100.0 * part / total;
+    }
+
+    private static String name(Stmt.Function function) {
+        if (function == null) return "<script>";
+        return function.name.lexeme + ":" + function.name.line;  // Same as the Profiler's frames
+    }
+}
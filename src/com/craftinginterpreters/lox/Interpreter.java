@@ -1,17 +1,56 @@
 package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    final Environment globals = new Environment();  // fixed reference to global definitions
-    private Environment environment = globals;  // tracks current environment, which changes based on scope
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    private final LoxContext context;  // where output and runtime errors go
+    final GlobalEnvironment globals;  // fixed reference to global definitions
+    private Environment environment;  // tracks current environment, which changes based on scope
+    int fuel = 0;  // steps left before checking the context's ExecutionBudget again
+    // Shadow stack of the functions this interpreter is in, outermost first, with null for top-level code.
+    // Only this interpreter's thread writes it, the Profiler reads it from another one without locking
+    Stmt.Function[] frames = new Stmt.Function[32];
+    int depth = 0;
+
+    private int sinceSample = 0;  // bytes allocated since the last MemoryAccount sample
+    private int untilSample = MemoryAccount.nextSampleInterval();
+
+    // Counted in plain fields and only added to the context's LoxMetrics every so often, see flushMetrics().
+    // Compiled code (see ClosureCompiler) counts into them too
+    int statementCount = 0;
+    private int callCount = 0;
+    int environmentCount = 0;
+    private int instanceCount = 0;
+    private int deepest = 0;  // Of the shadow stack
+    int inlineCacheHits = 0;  // Call sites and method lookups that found what they cached
+    int inlineCacheMisses = 0;
+
+    // Stores the number of steps between where a variable is referenced and its actual declaration,
+    // filled in by the Resolver (or ScriptCache). At runtime, the interpreter will get the steps from
+    // locals using the expr object and get the var from the environment that is the specified number
+    // of steps away (expr objects referencing different variables with the same name are different
+    // objects)
 
-    Interpreter() {
-        globals.define("clock", new LoxCallable() {
+    // Keying by a whole ass Expr Object is bonkers!
+    // (Owned by the LoxContext, see there for why it's concurrent)
+    final Map<Expr, Integer> locals;
+
+    // The natives this interpreter started with, by the name they were defined as. Scripts can reassign
+    // or alias the globals, but this keeps the original names (for HeapImage)
+    final Map<String, LoxCallable> natives;
+
+    Interpreter(LoxContext context, Map<Expr, Integer> locals) {
+        this.context = context;
+        this.globals = new GlobalEnvironment();
+        this.environment = globals;
+        this.locals = locals;
+        this.natives = new HashMap<>();
+
+        defineNative("clock", new LoxCallable() {
             @Override
             public int arity() { return 0; }
 
@@ -23,34 +62,196 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             @Override
             public String toString() { return "<native fn>"; }
         });
+
+        defineNative("spawn", new LoxCallable() {
+            @Override
+            public int arity() { return 1; }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object function = arguments.get(0);
+                if (!(function instanceof LoxCallable) || ((LoxCallable)function).arity() != 0) {
+                    throw new RuntimeError(null, "Can only spawn a function that takes no arguments.");
+                }
+
+                return new LoxTask(interpreter, (LoxCallable)function);
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        // Channel() is unbounded, Channel(n) holds at most n values
+        defineNative("Channel", new LoxCallable() {
+            @Override
+            public int arity() { return -1; }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (arguments.isEmpty()) return new LoxChannel(0);
+
+                Object capacity = arguments.get(0);
+                if (arguments.size() > 1 || !(capacity instanceof Double) || (double)capacity < 1) {
+                    throw new RuntimeError(null, "Channel capacity must be a positive number.");
+                }
+                return new LoxChannel((int)(double)capacity);
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        defineNative("select", new LoxCallable() {
+            @Override
+            public int arity() { return -1; }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxChannel.select(LoxChannel.channels(arguments));
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        defineNative("parallelMap", LoxParallel.map());
+        defineNative("parallelReduce", LoxParallel.reduce());
+
+        Profiler profiler = context.profiler;
+        if (profiler != null) profiler.register(this);
+    }
+
+    // Another interpreter over the same globals and resolved code, but with its own current environment,
+    // so it can run functions on another thread at the same time as this one
+    Interpreter(Interpreter parent) {
+        this.context = parent.context;
+        this.globals = parent.globals;
+        this.environment = globals;
+        this.locals = parent.locals;
+        this.natives = parent.natives;
+
+        Profiler profiler = context.profiler;
+        if (profiler != null) profiler.register(this);
+    }
+
+    // Throws if the budget has run out. Without a budget there's nothing to check, but it's still a
+    // good time to hand the counts over to the metrics
+    void refuel(Token where) {
+        flushMetrics();
+        ExecutionBudget budget = context.budget;
+        fuel = (budget == null ? ExecutionBudget.CHUNK : budget.take(where)) - 1;
+    }
+
+    // Add what this interpreter counted since last time to the context's LoxMetrics. Done every CHUNK
+    // steps and whenever it finishes a script or a task, so the shared counters are touched rarely
+    void flushMetrics() {
+        LoxMetrics metrics = context.metrics;
+        metrics.statements.add(statementCount);
+        metrics.calls.add(callCount);
+        metrics.environments.add(environmentCount);
+        metrics.instances.add(instanceCount);
+        metrics.inlineCacheHits.add(inlineCacheHits);
+        metrics.inlineCacheMisses.add(inlineCacheMisses);
+        metrics.maxCallDepth.accumulate(frames[0] == null ? deepest - 1 : deepest);  // Top-level code isn't a call
+        statementCount = 0;
+        callCount = 0;
+        environmentCount = 0;
+        instanceCount = 0;
+        inlineCacheHits = 0;
+        inlineCacheMisses = 0;
+    }
+
+    // Out of line so visitBinaryExpr() stays small enough for the JIT to inline
+    String concatenate(String left, String right) {
+        String result = left + right;
+        allocated(result, MemoryAccount.STRING + result.length());
+        return result;
+    }
+
+    // Charge bytes allocated for object to the context's MemoryAccount. Most of the time that's just a
+    // subtraction, only every SAMPLE_INTERVAL bytes or so does it actually get recorded (and the quota checked)
+    void allocated(Object object, int bytes) {
+        sinceSample += bytes;
+        if (sinceSample >= untilSample) sample(object);
+    }
+
+    // Every LoxInstance is made through here (overridden by InstrumentingInterpreter to count them)
+    void instantiated(LoxInstance instance) {
+        instanceCount++;
+        allocated(instance, MemoryAccount.INSTANCE);
+    }
+
+    private void sample(Object object) {
+        ExecutionBudget budget = context.budget;
+        long sampled = sinceSample;
+        sinceSample = 0;
+        untilSample = MemoryAccount.nextSampleInterval();
+        context.memory.sample(object, sampled, budget == null ? 0 : budget.maxMemory());
+        if (object instanceof LoxInstance) LoxEvents.instanceAllocation((LoxInstance)object, sampled);
+    }
+
+    private void defineNative(String name, LoxCallable function) {
+        natives.put(name, function);
+        globals.define(name, function);
+    }
+
+    // The optimizing tier's code for function, or null to interpret it (see OptimizingTier)
+    CompiledFunction compiled(Stmt.Function function) {
+        OptimizingTier tier = context.tier;
+        return tier == null ? null : tier.compiled(function);
+    }
+
+    Interpreter fork() {
+        return new Interpreter(this);
     }
 
     void interpret(List<Stmt> statements) {
+        try {
+            run(statements);
+        } catch (RuntimeError error) {
+            context.runtimeError(error);
+        }
+    }
+
+    // Like interpret(), but a runtime error is thrown to the caller instead of reported
+    void run(List<Stmt> statements) {
+        context.metrics.scripts.increment();
+        enter(null);
         try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
-        } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+        } finally {
+            exit();
+            flushMetrics();
         }
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    // Push and pop the shadow stack, around every call to a LoxFunction
+    void enter(Stmt.Function function) {
+        if (depth == frames.length) frames = Arrays.copyOf(frames, depth * 2);
+        frames[depth] = function;
+        depth++;  // Only after the frame is in place, so the Profiler never sees an empty slot
+        if (function != null) callCount++;
+        if (depth > deepest) deepest = depth;
     }
 
-    // Stores in locals the number of steps between where a variable is referenced and
-    // its actual declaration. At runtime, the interpreter will get the steps from locals
-    // using the expr object and get the var from the environment that is the specified number
-    // of steps away (expr objects referencing different variables with the same name are
-    // different objects)
+    void exit() {
+        depth--;
+    }
 
-    // Keying by a whole ass Expr Object is bonkers!
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    // execute() and evaluate() are where every node goes through, so InstrumentingInterpreter overrides
+    // them. As long as that class is never loaded, the JIT still sees only this one implementation
+    void execute(Stmt stmt) {
+        statementCount++;
+        stmt.accept(this);
     }
 
-    private String stringify(Object object) {
+    void print(Object value) {
+        context.out.println(stringify(value));
+    }
+
+    private static String stringify(Object object) {
         if (object == null) return "nil";
 
         // Hack. Work around Java adding ".0" to integer-valued doubles
@@ -75,6 +276,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Void visitFunctionStmt(Stmt.Function stmt) {
         LoxFunction function = new LoxFunction(stmt, environment, false);
         environment.define(stmt.name.lexeme, function);
+        allocated(function, MemoryAccount.CLOSURE);
         return null;
     }
 
@@ -91,7 +293,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        print(value);
         return null;
     }
 
@@ -139,6 +341,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass)superclass, methods);
+        allocated(klass, MemoryAccount.CLASS + MemoryAccount.FUNCTION * methods.size());
 
         if (superclass != null) {
             environment = environment.enclosing;
@@ -150,13 +353,50 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
+        OptimizingTier tier = context.tier;
+        if (tier != null) return executeWhile(stmt, tier);
+
         while (isTruthy(evaluate(stmt.condition))) {
             execute(stmt.body);
+            if (--fuel < 0) refuel(stmt.keyword);
         }
 
         return null;
     }
 
+    // The same with the optimizing tier on. Counts iterations, and once the loop is hot carries on in its
+    // compiled code from the top of the next iteration (on-stack replacement, see OptimizingTier)
+    private Void executeWhile(Stmt.While stmt, OptimizingTier tier) {
+        CompiledLoop compiled = tier.compiledLoop(stmt, 0);
+        TraceRecorder recorder = compiled == null ? tier.recorder(stmt, this) : null;
+        int iterations = 0;
+        while (compiled == null) {
+            if (!isTruthy(evaluate(stmt.condition))) {
+                tier.compiledLoop(stmt, iterations);  // So a loop entered over and over gets hot too
+                return null;
+            }
+
+            if (recorder == null) {
+                execute(stmt.body);
+            } else {
+                // The tier is tracing, so this iteration is the one the loop gets compiled for
+                Object value = recorder.record(stmt, environment);
+                if (value != ClosureCompiler.NORMAL) throw new Return(value);
+                compiled = tier.compiledTrace(stmt, recorder);
+            }
+            if (--fuel < 0) refuel(stmt.keyword);
+            if (++iterations == OptimizingTier.LOOP_THRESHOLD) {
+                compiled = tier.compiledLoop(stmt, iterations);
+                if (compiled == null) recorder = tier.recorder(stmt, this);
+                iterations = 0;
+            }
+        }
+
+        Object value = compiled.execute(this, environment);
+        if (value != ClosureCompiler.NORMAL) throw new Return(value);  // A return inside the loop, for LoxFunction.call()
+        return null;
+    }
+
     // Assignment is an expression that can be nested in other expressions (e.g. print foo = "bar")
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
@@ -180,8 +420,26 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    // Run statements in environment for compiled code, that is handing them back to the interpreter. Returns
+    // the value of a return statement that ran, or ClosureCompiler.NORMAL
+    Object resume(List<Stmt> statements, Environment environment) {
+        Environment previous = this.environment;
+        try {
+            this.environment = environment;
+            for (Stmt statement : statements) {
+                execute(statement);
+            }
+            return ClosureCompiler.NORMAL;
+        } catch (Return returnValue) {
+            return returnValue.value;
+        } finally {
+            this.environment = previous;
+        }
+    }
+
     void executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
+        environmentCount++;  // Always a new one, for a block or a call
 
         try {
             this.environment = environment;
@@ -223,7 +481,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         Object value = evaluate(expr.value);
-        ((LoxInstance)object).set(expr.name, value);
+        if (((LoxInstance)object).set(expr.name, value)) allocated(object, MemoryAccount.FIELD);
         return value;
     }
 
@@ -254,7 +512,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return evaluate(expr.expression);
     }
 
-    private Object evaluate(Expr expr) {
+    Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
@@ -305,18 +563,27 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         LoxCallable function = (LoxCallable)callee;
-        if (arguments.size() != function.arity()) {
+        if (function.arity() >= 0 && arguments.size() != function.arity()) {
             throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
         }
 
-        return function.call(this, arguments);
+        if (--fuel < 0) refuel(expr.paren);
+
+        try {
+            return function.call(this, arguments);
+        } catch (RuntimeError error) {
+            if (error.token != null) throw error;
+
+            // Natives don't know where they were called from, so they leave the token for us to fill in
+            throw new RuntimeError(expr.paren, error.getMessage());
+        }
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
-        if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.name);
+        if (object instanceof LoxObject) {
+            return ((LoxObject) object).get(expr.name);
         }
 
         throw new RuntimeError(expr.name, "Only instances have properties");
@@ -339,7 +606,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
@@ -360,7 +627,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 }
 
                 if (left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
+                    return concatenate((String)left, (String)right);
                 }
             case SLASH:
                 checkNumberOperands(expr.operator, left, right);
@@ -390,7 +657,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         // nil is only equal to nil
         if (a == null && b == null) return true;
         if (a == null) return false;
@@ -20,86 +20,166 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
 
 public class Lox {
-	private static final Interpreter interpreter = new Interpreter();  // Use the same interpreter because of global variables
-	static boolean hadError = false;
-	static boolean hadRuntimeError = false;
+	private static final int HOTSPOTS = 20;  // Lines and functions lox --hotspots lists
 	
 	public static void main(String args[]) throws IOException {
-		if (args.length > 1) {
-			System.out.println("Usage: lox [script]");
-			System.exit(64);
+		// All the state lives in the context, so embedders can make as many of these as they like
+		LoxContext context = new LoxContext(System.out, System.err);
+		
+		if (args.length >= 2 && args[0].equals("--serve")) {
+			serve(args);  // Runs until killed
+		} else if ((args.length == 2 || args.length == 3) && args[0].equals("--client")) {
+			System.exit(LoxClient.run(Paths.get(args[1]), args.length == 3 ? args[2] : null));
+		} else if (args.length == 3 && args[0].equals("--snapshot")) {
+			runFile(context, args[2]);  // Exits if the prelude fails
+			writeImage(context, args[1]);
+		} else if (args.length == 3 && args[0].equals("--image")) {
+			readImage(context, args[1]);
+			runFile(context, args[2]);
+		} else if (args.length == 3 && args[0].equals("--profile")) {
+			context.startProfiling();
+			executeFile(context, args[2]);
+			context.stopProfiling(Paths.get(args[1]));  // Even if the script failed, it may be why it's slow
+			exitOnError(context);
+		} else if (args.length == 2 && args[0].equals("--hotspots")) {
+			LoxContext instrumented = LoxContext.instrumented(System.out, System.err);
+			executeFile(instrumented, args[1]);
+			((InstrumentingInterpreter)instrumented.interpreter).report(System.err, HOTSPOTS);
+			exitOnError(instrumented);
+		} else if (args.length == 2 && args[0].equals("--optimize")) {
+			context.enableOptimization();
+			executeFile(context, args[1]);  // With the script's type profile, see TypeProfile
+			exitOnError(context);
+		} else if (args.length == 2 && args[0].equals("--trace")) {
+			context.enableTracing();
+			executeFile(context, args[1]);
+			exitOnError(context);
+		} else if (args.length > 1 || (args.length == 1 && args[0].startsWith("--"))) {
+			usage();
 		} else if (args.length == 1) {
-			runFile(args[0]);
+			runFile(context, args[0]);
 		} else {
-			runPrompt();
+			runPrompt(context);
 		}
 	}
 	
-	private static void runFile(String path) throws IOException {
-		byte[] bytes = Files.readAllBytes(Paths.get(path));
-		run(new String(bytes, Charset.defaultCharset()));
-		
-		// Indicate an error in the exit code
-		if (hadError) System.exit(65);
-		if (hadRuntimeError) System.exit(70);  // Why does this only matter for runFile and not runPrompt?
+	private static void usage() {
+		System.out.println("Usage: lox [script]");
+		System.out.println("       lox --serve <socket> [--timeout <seconds>] [--max-steps <count>] [--threads <count>]");
+		System.out.println("       lox --client <socket> [script]");
+		System.out.println("       lox --snapshot <image> <prelude>");
+		System.out.println("       lox --image <image> <script>");
+		System.out.println("       lox --profile <output> <script>");
+		System.out.println("       lox --hotspots <script>");
+		System.out.println("       lox --optimize <script>");
+		System.out.println("       lox --trace <script>");
+		System.exit(64);
 	}
 	
-	// Run an interactive user prompt
-	private static void runPrompt() throws IOException {
-		InputStreamReader input = new InputStreamReader(System.in);  // Stream reader that converts bytes to characters
-		BufferedReader reader = new BufferedReader(input);  // Provides buffered reading of char stream
+	// The limits every script sent to the server runs with. A timeout of 0 means none, and so does leaving
+	// out --max-steps
+	private static void serve(String[] args) throws IOException {
+		Duration timeout = LoxServer.DEFAULT_TIMEOUT;
+		long maxSteps = 0;
+		int threads = LoxServer.DEFAULT_THREADS;
 		
-		for (;;) {  // Escape from interactive prompt with Ctrl-C
-			System.out.print("> ");
-			run(reader.readLine());
-			hadError = false;
+		try {
+			for (int i = 2; i < args.length; i += 2) {
+				if (i + 1 == args.length) usage();
+				switch (args[i]) {
+					case "--timeout": timeout = Duration.ofSeconds(Long.parseLong(args[i + 1])); break;
+					case "--max-steps": maxSteps = Long.parseLong(args[i + 1]); break;
+					case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+					default: usage();
+				}
+			}
+		} catch (NumberFormatException e) {
+			usage();
 		}
+		if (timeout.isNegative() || maxSteps < 0 || threads < 1) usage();
+		
+		LoxServer.serve(Paths.get(args[1]), timeout.isZero() ? null : timeout, maxSteps, threads);
+	}
+	
+	private static void runFile(LoxContext context, String path) throws IOException {
+		executeFile(context, path);
+		exitOnError(context);
 	}
 	
-	private static void run(String source) {
-		Scanner scanner = new Scanner(source);
-		List<Token> tokens= scanner.scanTokens();
+	private static void executeFile(LoxContext context, String path) throws IOException {
+		byte[] bytes = Files.readAllBytes(Paths.get(path));
+		Interpreter interpreter = context.interpreter;
 		
-		Parser parser = new Parser(tokens);                    
-		List<Stmt> statements = parser.parse();
-
-	    // Stop if there was a syntax error.                   
-	    if (hadError) return;
-
-	    Resolver resolver = new Resolver(interpreter);
-	    resolver.resolve(statements);
-
-		// Stop if there was a resolution or return error.
-		if (hadError) return;
-
-	    interpreter.interpret(statements);
+		// Skip scanning, parsing and resolving entirely if this exact source was compiled before
+		ScriptCache cache = new ScriptCache(Paths.get(path), bytes, Charset.defaultCharset());
+		List<Stmt> statements = cache.load(interpreter.locals);
+		if (statements == null) {
+			context.metrics.cacheMisses.increment();
+			statements = context.compile(new String(bytes, Charset.defaultCharset()));
+			if (statements != null) cache.store(statements, interpreter.locals);
+		} else {
+			context.metrics.cacheHits.increment();
+		}
+		
+		if (statements == null) return;
+		
+		OptimizingTier tier = context.tier;
+		if (tier == null) {
+			interpreter.interpret(statements);
+			return;
+		}
+		
+		// Start from what earlier runs learned, and leave what this one learned for the next
+		Path profile = TypeProfile.pathFor(Paths.get(path));
+		byte[] hash = ScriptCache.hash(bytes, Charset.defaultCharset());
+		tier.loadProfile(profile, hash, statements);
+		interpreter.interpret(statements);
+		tier.storeProfile(profile, hash, statements);
 	}
 	
-	static void error(int line, String message) {
-		report(line, "", message);
+	// Indicate an error in the exit code
+	private static void exitOnError(LoxContext context) {
+		if (context.hadError()) System.exit(65);
+		if (context.hadRuntimeError()) System.exit(70);  // Why does this only matter for runFile and not runPrompt?
 	}
 	
-	static void error(Token token, String message) {
-		if (token.type == TokenType.EOF) {
-			report(token.line, " at end", message);
-		} else {
-			report(token.line, " at '" + token.lexeme + "'", message);
+	// Save the globals a prelude left behind, see HeapImage
+	private static void writeImage(LoxContext context, String path) {
+		try {
+			HeapImage.write(context, Paths.get(path));
+		} catch (IOException e) {
+			System.err.println("Could not write image: " + e.getMessage());
+			System.exit(74);
 		}
 	}
 	
-	private static void report(int line, String where, String message) {
-		System.err.println(
-			"[line " + line + "] Error" + where + "; " + message
-		);
-		hadError = true;
+	private static void readImage(LoxContext context, String path) {
+		try {
+			HeapImage.read(Paths.get(path), context);
+		} catch (IOException e) {
+			System.err.println("Could not read image: " + e.getMessage());
+			System.exit(66);
+		}
 	}
 	
-	static void runtimeError(RuntimeError error) {
-		System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-		hadRuntimeError = true;
+	// Run an interactive user prompt
+	private static void runPrompt(LoxContext context) throws IOException {
+		InputStreamReader input = new InputStreamReader(System.in);  // Stream reader that converts bytes to characters
+		BufferedReader reader = new BufferedReader(input);  // Provides buffered reading of char stream
+		
+		for (;;) {  // Escape from interactive prompt with Ctrl-C
+			System.out.print("> ");
+			String line = reader.readLine();
+			if (line == null) break;  // End of input (Ctrl-D)
+			
+			context.run(line);  // Same context every line because of global variables
+			context.clearErrors();
+		}
 	}
 }
@@ -3,6 +3,6 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 interface LoxCallable {
-    int arity();
+    int arity();  // Negative means any number of arguments, and call() checks them itself
     Object call(Interpreter interpreter, List<Object> arguments);
 }
@@ -0,0 +1,247 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * A queue tasks can pass values through instead of sharing instances. Channel() is unbounded and
+ * Channel(n) holds at most n values, after which send() blocks until something is received.
+ *
+ *   ch.send(value)  - blocks while a bounded channel is full. Sending on a closed channel is an error
+ *   ch.receive()    - blocks until there's a value. Once the channel is closed and empty it returns nil
+ *   ch.close()      - no more sends. Values already sent can still be received
+ *   select(a, b...) - waits on several channels and returns the first value any of them has, as an
+ *                     object with .channel and .value. Closed channels are skipped once they're empty,
+ *                     and select() returns nil when all of them are
+ *
+ * Nothing here takes a lock. Values go through a ConcurrentLinkedQueue and the free slots of a bounded
+ * channel are an atomic counter. A task that has to wait adds its thread to the channel's waiters, looks
+ * again in case something arrived in the meantime, and parks. Every send unparks one waiting receiver
+ * and every receive from a bounded channel unparks one waiting sender, so a parked virtual thread costs
+ * nothing until it has something to do.
+ */
+class LoxChannel implements LoxObject {
+    private static final Object NIL = new Object();  // The queue can't hold null
+
+    private final ConcurrentLinkedQueue<Object> items = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger freeSlots;  // null when unbounded
+    private volatile boolean closed = false;
+
+    private final ConcurrentLinkedQueue<Thread> receivers = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Thread> senders = new ConcurrentLinkedQueue<>();
+
+    private final LoxCallable send = new NativeMethod(1) {
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            send(arguments.get(0));
+            return null;
+        }
+    };
+
+    private final LoxCallable receive = new NativeMethod(0) {
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return receive();
+        }
+    };
+
+    private final LoxCallable close = new NativeMethod(0) {
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            close();
+            return null;
+        }
+    };
+
+    LoxChannel(int capacity) {
+        freeSlots = capacity > 0 ? new AtomicInteger(capacity) : null;
+    }
+
+    void send(Object value) {
+        for (;;) {
+            if (closed) throw new RuntimeError(null, "Cannot send on a closed channel.");
+
+            if (takeSlot()) {
+                items.offer(value == null ? NIL : value);
+                wake(receivers);
+                return;
+            }
+
+            Thread current = Thread.currentThread();
+            senders.add(current);
+            if (freeSlots.get() > 0 || closed) {  // Freed up before we got in line
+                senders.remove(current);
+                continue;
+            }
+            park(this);
+            senders.remove(current);
+        }
+    }
+
+    Object receive() {
+        for (;;) {
+            Object item = poll();
+            if (item != null) return item == NIL ? null : item;
+            if (closed) {
+                item = poll();  // A send can slip in right before close()
+                return item == null || item == NIL ? null : item;
+            }
+
+            Thread current = Thread.currentThread();
+            receivers.add(current);
+            if (!items.isEmpty() || closed) {  // Arrived before we got in line
+                receivers.remove(current);
+                continue;
+            }
+            park(this);
+            receivers.remove(current);
+        }
+    }
+
+    void close() {
+        closed = true;
+
+        // Everybody waiting needs to see it
+        for (Thread thread : receivers) LockSupport.unpark(thread);
+        for (Thread thread : senders) LockSupport.unpark(thread);
+    }
+
+    static Object select(List<LoxChannel> channels) {
+        Thread current = Thread.currentThread();
+        int count = channels.size();
+
+        for (;;) {
+            // Start somewhere random so one busy channel can't starve the others
+            int first = ThreadLocalRandom.current().nextInt(count);
+            boolean allClosed = true;
+            for (int i = 0; i < count; i++) {
+                LoxChannel channel = channels.get((first + i) % count);
+                Object item = channel.poll();
+                if (item != null) return new Selection(channel, item == NIL ? null : item);
+                if (!channel.closed) allClosed = false;
+            }
+            if (allClosed) return null;
+
+            for (LoxChannel channel : channels) channel.receivers.add(current);
+            if (!anyReady(channels)) park(channels);
+            for (LoxChannel channel : channels) channel.receivers.remove(current);
+
+            // We might have been woken by more than one channel but will only take from one. Pass the
+            // other wakeups on so a receiver parked on those channels doesn't sleep through a value
+            for (LoxChannel channel : channels) {
+                if (!channel.items.isEmpty()) wake(channel.receivers);
+            }
+        }
+    }
+
+    private static boolean anyReady(List<LoxChannel> channels) {
+        for (LoxChannel channel : channels) {
+            if (!channel.items.isEmpty()) return true;
+        }
+
+        // Only report closed once they're all closed, or select() would spin on one closed channel
+        for (LoxChannel channel : channels) {
+            if (!channel.closed) return false;
+        }
+        return true;
+    }
+
+    // Take a value and free its slot, or null if there isn't one
+    private Object poll() {
+        Object item = items.poll();
+        if (item != null && freeSlots != null) {
+            freeSlots.incrementAndGet();
+            wake(senders);
+        }
+        return item;
+    }
+
+    private boolean takeSlot() {
+        if (freeSlots == null) return true;
+
+        for (;;) {
+            int free = freeSlots.get();
+            if (free == 0) return false;
+            if (freeSlots.compareAndSet(free, free - 1)) return true;
+        }
+    }
+
+    private static void wake(ConcurrentLinkedQueue<Thread> waiters) {
+        Thread thread = waiters.poll();
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    private static void park(Object blocker) {
+        LockSupport.park(blocker);
+        if (Thread.interrupted()) throw new RuntimeError(null, "Interrupted while waiting on a channel.");
+    }
+
+    @Override
+    public Object get(Token name) {
+        switch (name.lexeme) {
+            case "send": return send;
+            case "receive": return receive;
+            case "close": return close;
+        }
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+
+    // What select() returns: which channel had a value, and the value
+    private static class Selection implements LoxObject {
+        private final LoxChannel channel;
+        private final Object value;
+
+        Selection(LoxChannel channel, Object value) {
+            this.channel = channel;
+            this.value = value;
+        }
+
+        @Override
+        public Object get(Token name) {
+            if (name.lexeme.equals("channel")) return channel;
+            if (name.lexeme.equals("value")) return value;
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        @Override
+        public String toString() {
+            return "<selection>";
+        }
+    }
+
+    private abstract static class NativeMethod implements LoxCallable {
+        private final int arity;
+
+        NativeMethod(int arity) {
+            this.arity = arity;
+        }
+
+        @Override
+        public int arity() { return arity; }
+
+        @Override
+        public String toString() { return "<native fn>"; }
+    }
+
+    // Arguments for select(), checked
+    static List<LoxChannel> channels(List<Object> arguments) {
+        List<LoxChannel> channels = new ArrayList<>(arguments.size());
+        for (Object argument : arguments) {
+            if (!(argument instanceof LoxChannel)) throw new RuntimeError(null, "Can only select on channels.");
+            channels.add((LoxChannel)argument);
+        }
+        if (channels.isEmpty()) throw new RuntimeError(null, "Expected at least one channel.");
+        return channels;
+    }
+}
@@ -2,11 +2,17 @@ package com.craftinginterpreters.lox;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 class LoxClass implements LoxCallable {  // LoxCallable for the constructors
     final String name;
     final LoxClass superclass;
-    private final Map<String, LoxFunction> methods;
+    final Map<String, LoxFunction> methods;
+
+    // Every field name an instance of exactly this class has had, and assumptions that one hasn't (see noField())
+    private final Set<String> fieldNames = ConcurrentHashMap.newKeySet();
+    private final Map<String, Assumption> noFields = new ConcurrentHashMap<>();
 
     LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
         this.name = name;
@@ -26,6 +32,27 @@ class LoxClass implements LoxCallable {  // LoxCallable for the constructors
         return null;
     }
 
+    // An assumption that no instance of this class has a field called name, so compiled code can find a
+    // method by that name without checking the instance's fields first (see Assumption). null if one has
+    Assumption noField(String name) {
+        if (fieldNames.contains(name)) return null;
+
+        Assumption assumption = noFields.computeIfAbsent(name, n -> new Assumption("no " + this.name + " instance has a field called " + n));
+        if (fieldNames.contains(name)) {  // fieldAdded() got in between
+            assumption.invalidate();
+            return null;
+        }
+        return assumption;
+    }
+
+    // Called by LoxInstance whenever it gets a new field
+    void fieldAdded(String name) {
+        if (fieldNames.contains(name) || !fieldNames.add(name)) return;
+
+        Assumption assumption = noFields.remove(name);
+        if (assumption != null) assumption.invalidate();
+    }
+
     @Override
     public String toString() {
         return name;
@@ -35,6 +62,7 @@ class LoxClass implements LoxCallable {  // LoxCallable for the constructors
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
         LoxInstance instance = new LoxInstance(this);
+        interpreter.instantiated(instance);
         LoxFunction initializer = findMethod("init");
         if (initializer != null) {
             initializer.bind(instance).call(interpreter, arguments);
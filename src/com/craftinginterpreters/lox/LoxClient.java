@@ -0,0 +1,58 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/*
+ * lox --client <socket> [script] sends a script to a running lox --serve and prints what it prints. With
+ * no script, the source is read from stdin instead. Exits with the script's exit code, or 69 if there's no
+ * server listening on the socket. See LoxServer for the protocol.
+ *
+ * The client does nothing but copy bytes, so its own JVM starts, runs and exits without ever needing the
+ * JIT.
+ */
+class LoxClient {
+    static int run(Path socket, String script) throws IOException {
+        byte kind;
+        byte[] request;
+        if (script != null) {
+            // The server has a different working directory, so send it a path that doesn't depend on one
+            kind = LoxServer.REQUEST_PATH;
+            request = Paths.get(script).toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+        } else {
+            kind = LoxServer.REQUEST_SOURCE;
+            request = System.in.readAllBytes();
+        }
+
+        SocketChannel connection;
+        try {
+            connection = SocketChannel.open(StandardProtocolFamily.UNIX);
+            connection.connect(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            System.err.println("No lox server at " + socket + ": " + e.getMessage());
+            return 69;
+        }
+
+        try (connection) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(connection));
+            try {
+                out.writeByte(kind);
+                out.writeInt(request.length);
+                out.write(request);
+                out.flush();
+            } catch (IOException e) {
+                // A busy server answers and hangs up without reading the request, so the answer may still be
+                // there to read
+            }
+
+            return LoxServer.readResponse(Channels.newInputStream(connection), System.out, System.err);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.ObjectName;
+
+/*
+ * Everything one running script owns: its interpreter (and with it the globals and resolved locals),
+ * where its output and errors go, and whether anything has gone wrong. Nothing in here is static, so a
+ * process can run as many independent contexts as it likes, each on its own thread. A single context
+ * still expects to be used by one thread at a time.
+ */
+public class LoxContext implements ErrorReporter {
+    final PrintStream out;
+    final PrintStream err;
+    final Interpreter interpreter;
+    volatile ExecutionBudget budget = null;  // Read by every interpreter forked from this one too
+    final MemoryAccount memory = new MemoryAccount();
+    final LoxMetrics metrics;
+    volatile Profiler profiler = null;
+    volatile OptimizingTier tier = null;
+
+    private boolean hadError = false;
+    private boolean hadRuntimeError = false;
+
+    public LoxContext() {
+        this(System.out, System.err);
+    }
+
+    public LoxContext(PrintStream out, PrintStream err) {
+        // Concurrent because the REPL can resolve a new line while tasks spawned by an earlier one read it
+        this(out, err, new ConcurrentHashMap<>());
+    }
+
+    // A context for running code that was resolved ahead of time into locals (see CompiledScript)
+    LoxContext(PrintStream out, PrintStream err, Map<Expr, Integer> locals) {
+        this(out, err, locals, new LoxMetrics(), false);
+    }
+
+    // The same, counting into metrics that are shared with other contexts (see LoxEngine)
+    LoxContext(PrintStream out, PrintStream err, Map<Expr, Integer> locals, LoxMetrics metrics) {
+        this(out, err, locals, metrics, false);
+    }
+
+    private LoxContext(PrintStream out, PrintStream err, Map<Expr, Integer> locals, LoxMetrics metrics, boolean instrumented) {
+        this.out = out;
+        this.err = err;
+        this.metrics = metrics;
+        // Globals live as long as the context does
+        this.interpreter = instrumented ? new InstrumentingInterpreter(this, locals) : new Interpreter(this, locals);
+    }
+
+    // A context that counts what every node of the code run in it does, for lox --hotspots (see
+    // InstrumentingInterpreter). Much slower than a normal one
+    static LoxContext instrumented(PrintStream out, PrintStream err) {
+        return new LoxContext(out, err, new ConcurrentHashMap<>(), new LoxMetrics(), true);
+    }
+
+    // Compile and run source against this context's globals
+    public void run(String source) {
+        List<Stmt> statements = compile(source);
+        if (statements == null) return;
+
+        interpreter.interpret(statements);
+    }
+
+    // Scan, parse and resolve source. Returns null if any of those steps reported an error
+    List<Stmt> compile(String source) {
+        return compile(source, interpreter.locals, this);
+    }
+
+    // The same for code that isn't going to run in a context yet, e.g. in LoxEngine. Resolved distances
+    // go into locals, errors go to reporter
+    static List<Stmt> compile(String source, Map<Expr, Integer> locals, ErrorReporter reporter) {
+        if (source.length() >= ParallelFrontEnd.THRESHOLD) {
+            return ParallelFrontEnd.compile(source, locals, reporter);
+        }
+        return compileSerially(source, locals, reporter);
+    }
+
+    // The same in one pass on this thread, whatever the size of source
+    static List<Stmt> compileSerially(String source, Map<Expr, Integer> locals, ErrorReporter reporter) {
+        ErrorCounter errors = new ErrorCounter(reporter);
+        LoxEvents.CompilePhase event = new LoxEvents.CompilePhase("scan", source.length());
+        Scanner scanner = new Scanner(source, errors);
+        List<Token> tokens = scanner.scanTokens();
+        event.finish(errors.count);
+
+        event = new LoxEvents.CompilePhase("parse", source.length());
+        Parser parser = new Parser(tokens, errors);
+        List<Stmt> statements = parser.parse();
+        event.finish(errors.count);
+
+        // Stop if there was a syntax error.
+        if (errors.count > 0) return null;
+
+        event = new LoxEvents.CompilePhase("resolve", source.length());
+        Resolver resolver = new Resolver(locals, errors);
+        resolver.resolve(statements);
+        event.finish(errors.count);
+
+        // Stop if there was a resolution or return error.
+        if (errors.count > 0) return null;
+
+        return statements;
+    }
+
+    // Passes errors on and remembers whether there were any
+    private static class ErrorCounter implements ErrorReporter {
+        private final ErrorReporter reporter;
+        int count = 0;
+
+        ErrorCounter(ErrorReporter reporter) {
+            this.reporter = reporter;
+        }
+
+        @Override
+        public void report(Diagnostic diagnostic) {
+            count++;
+            reporter.report(diagnostic);
+        }
+    }
+
+    // Limit how long code run in this context from now on can take, or null for no limit
+    public void setBudget(ExecutionBudget budget) {
+        this.budget = budget;
+        interpreter.fuel = 0;  // So the next step already checks it
+    }
+
+    // Sample what code run in this context is doing until stopProfiling() (see Profiler)
+    public void startProfiling() {
+        if (profiler != null) return;
+
+        profiler = new Profiler();
+        profiler.register(interpreter);
+    }
+
+    // Stop sampling and write the samples to path as collapsed stacks, for flame graph tools
+    public void stopProfiling(Path path) throws IOException {
+        Profiler stopped = profiler;
+        if (stopped == null) return;
+
+        profiler = null;
+        stopped.stop();
+        stopped.write(path);
+    }
+
+    // Compile functions that get called a lot from now on, see OptimizingTier. Code run in the context
+    // behaves exactly the same, only faster once it's warmed up
+    public void enableOptimization() {
+        if (tier == null) tier = new OptimizingTier(interpreter.locals);
+    }
+
+    // The same, except that hot loops are compiled along the path they actually take, with the functions
+    // they call inlined (see TraceCompiler)
+    public void enableTracing() {
+        if (tier == null) tier = new OptimizingTier(interpreter.locals, true);
+    }
+
+    // Make this context's counters visible over JMX (see LoxMetricsMXBean) until unregisterMetrics(). Returns
+    // the name they're registered under
+    public ObjectName registerMetrics() {
+        return metrics.register("LoxContext");
+    }
+
+    public void unregisterMetrics() {
+        metrics.unregister();
+    }
+
+    // Estimated bytes the code run in this context is holding on to right now, the most it ever held, and
+    // everything it has allocated (see MemoryAccount)
+    public long memoryInUse() {
+        return memory.inUse();
+    }
+
+    public long peakMemoryInUse() {
+        return memory.peak();
+    }
+
+    public long memoryAllocated() {
+        return memory.allocated();
+    }
+
+    public boolean hadError() {
+        return hadError;
+    }
+
+    public boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    // Forget earlier errors, e.g. between lines typed into the REPL
+    public void clearErrors() {
+        hadError = false;
+        hadRuntimeError = false;
+    }
+
+    @Override
+    public void report(Diagnostic diagnostic) {
+        err.println(diagnostic);
+        hadError = true;
+    }
+
+    void runtimeError(RuntimeError error) {
+        LoxEvents.runtimeError(error);
+        metrics.runtimeErrors.increment();
+        err.println(describe(error));
+        hadRuntimeError = true;
+    }
+
+    static String describe(RuntimeError error) {
+        if (error.token == null) return error.getMessage();  // e.g. one raised by a native function
+        return error.getMessage() + "\n[line " + error.token.line + "]";
+    }
+}
@@ -0,0 +1,95 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.ObjectName;
+
+/*
+ * Entry point for running Lox from Java. compile() does the scanning, parsing and resolving once, and the
+ * CompiledScript it returns runs as often as you like without repeating any of that:
+ *
+ *   LoxEngine engine = new LoxEngine();
+ *   CompiledScript script = engine.compile(source);  // Throws LoxException on a compile error
+ *   script.run(new Bindings().put("user", name));
+ *
+ * The engine keeps the most recently used compiled scripts (256 by default), keyed by a hash of their
+ * source, so a service that builds the same scripts over and over can just call compile() every time and
+ * only pay for the first one. An engine is safe to share between threads.
+ */
+public class LoxEngine {
+    private static final int DEFAULT_CACHE_SIZE = 256;
+
+    private final Map<String, CompiledScript> cache;
+    private final LoxMetrics metrics = new LoxMetrics();  // For every run of every script compiled here
+
+    public LoxEngine() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    // A cacheSize of 0 turns the cache off
+    public LoxEngine(int cacheSize) {
+        this.cache = new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {  // Access order, for LRU
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    public CompiledScript compile(String source) {
+        String key = HexFormat.of().formatHex(ScriptCache.hash(source.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+        synchronized (cache) {
+            CompiledScript script = cache.get(key);
+            if (script != null) {
+                metrics.cacheHits.increment();
+                return script;
+            }
+        }
+        metrics.cacheMisses.increment();
+
+        // Compile outside the lock so one big script doesn't hold up every other thread. Two threads
+        // compiling the same new source both do the work, and the last one's result is kept
+        CompiledScript script = compileUncached(source);
+        synchronized (cache) {
+            cache.put(key, script);
+        }
+        return script;
+    }
+
+    // Make this engine's counters visible over JMX (see LoxMetricsMXBean) until unregisterMetrics(). Returns
+    // the name they're registered under
+    public ObjectName registerMetrics() {
+        return metrics.register("LoxEngine");
+    }
+
+    public void unregisterMetrics() {
+        metrics.unregister();
+    }
+
+    private CompiledScript compileUncached(String source) {
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        Map<Expr, Integer> locals = new HashMap<>();
+        List<Stmt> statements = LoxContext.compile(source, locals, diagnostics::add);
+
+        if (statements == null) {
+            StringBuilder message = new StringBuilder();
+            for (Diagnostic diagnostic : diagnostics) {
+                if (message.length() > 0) message.append('\n');
+                message.append(diagnostic);
+            }
+            throw new LoxException(message.toString(), true);
+        }
+
+        // Only read from now on, by every run of the script on any thread. The final fields in
+        // CompiledScript publish them safely
+        return new CompiledScript(Collections.unmodifiableList(statements), Collections.unmodifiableMap(locals), metrics);
+    }
+}
@@ -0,0 +1,115 @@
+package com.craftinginterpreters.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/*
+ * Java Flight Recorder events for what Lox code is doing, so a recording of a JVM running scripts shows
+ * Lox calls, allocations, compiles and errors next to its GC pauses and CPU samples. They're all in the
+ * "Lox" category and can be switched on and off (and the call threshold changed) in a .jfc settings file
+ * like any JDK event, e.g. lox.Call#threshold=10 ms.
+ *
+ * While nothing is recording, an event is an object the JIT never actually allocates and a couple of
+ * checks of a flag that's always false. None of them take a Java stack trace by default, since it would
+ * only show the interpreter's own methods.
+ */
+final class LoxEvents {
+    private LoxEvents() {}
+
+    @Name("lox.Call")
+    @Label("Lox Call")
+    @Description("A call to a Lox function or method that took longer than the threshold")
+    @Category("Lox")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static final class Call extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("lox.InstanceAllocation")
+    @Label("Lox Instance Allocation")
+    @Description("An instance that MemoryAccount sampled, standing in for the bytes allocated since the last sample")
+    @Category("Lox")
+    @StackTrace(false)
+    static final class InstanceAllocation extends Event {
+        @Label("Class")
+        String className;
+
+        @Label("Weight")
+        @DataAmount
+        long weight;
+    }
+
+    @Name("lox.CompilePhase")
+    @Label("Lox Compile Phase")
+    @Description("Scanning, parsing or resolving one script (or one chunk of a big one, see ParallelFrontEnd)")
+    @Category("Lox")
+    @StackTrace(false)
+    static final class CompilePhase extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Source Length")
+        @DataAmount(DataAmount.BYTES)
+        int sourceLength;
+
+        @Label("Errors")
+        int errors;
+
+        CompilePhase(String phase, int sourceLength) {
+            this.phase = phase;
+            this.sourceLength = sourceLength;
+            begin();
+        }
+
+        // errors is how many the phase reported in total
+        void finish(int errors) {
+            end();
+            if (shouldCommit()) {
+                this.errors = errors;
+                commit();
+            }
+        }
+    }
+
+    @Name("lox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Description("A runtime error that stopped a script")
+    @Category("Lox")
+    @StackTrace(false)
+    static final class RuntimeErrorEvent extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+
+    static void instanceAllocation(LoxInstance instance, long weight) {
+        InstanceAllocation event = new InstanceAllocation();
+        if (!event.shouldCommit()) return;
+
+        event.className = instance.klass.name;
+        event.weight = weight;
+        event.commit();
+    }
+
+    static void runtimeError(RuntimeError error) {
+        RuntimeErrorEvent event = new RuntimeErrorEvent();
+        if (!event.shouldCommit()) return;
+
+        event.message = error.getMessage();
+        event.line = error.token == null ? 0 : error.token.line;
+        event.commit();
+    }
+}
@@ -0,0 +1,22 @@
+package com.craftinginterpreters.lox;
+
+/*
+ * How the embedding API (LoxEngine, CompiledScript) reports that a script didn't compile or stopped with
+ * a runtime error. The message is exactly what the command line would have printed: one line per error
+ * for compile errors, the error and the line it happened on for a runtime error.
+ */
+public class LoxException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean compileError;
+
+    LoxException(String message, boolean compileError) {
+        super(message, null, false, false);  // The Java stack trace would only show the interpreter
+        this.compileError = compileError;
+    }
+
+    // True if the script never ran, false if it failed while running
+    public boolean isCompileError() {
+        return compileError;
+    }
+}
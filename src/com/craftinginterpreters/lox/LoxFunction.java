@@ -3,9 +3,9 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 class LoxFunction implements LoxCallable {
-    private final Stmt.Function declaration;
-    private final Environment closure;
-    private final boolean isInitializer;
+    final Stmt.Function declaration;
+    final Environment closure;
+    final boolean isInitializer;
 
     LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
         this.isInitializer = isInitializer;
@@ -23,17 +23,40 @@ class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        return call(interpreter, arguments, interpreter.compiled(declaration));
+    }
+
+    // compiled is the optimizing tier's code for the declaration, or null to interpret it. Compiled call
+    // sites that already know it pass it in themselves
+    Object call(Interpreter interpreter, List<Object> arguments, CompiledFunction compiled) {
         Environment environment = new Environment(closure);  // Tied to interpreter.globals instead of interpreter.environent because functions get access to global vars but not necessarily vars of callee scope
         for (int i = 0; i < declaration.params.size(); i++) {
             environment.define(declaration.params.get(i).lexeme, arguments.get(i));
         }
 
+        LoxEvents.Call event = new LoxEvents.Call();
+        event.begin();
+        interpreter.enter(declaration);
         try {  // Returns are thrown to get past what could be a deeply nested callstack. Kinda dirty but it works
+            if (compiled != null) {
+                Object value = compiled.execute(interpreter, environment);  // Compiled code returns instead of throwing
+                if (isInitializer) return closure.getAt(0, "this");
+                return value == ClosureCompiler.NORMAL ? null : value;
+            }
+
             interpreter.executeBlock(declaration.body, environment);
         } catch (Return returnValue) {
             if (isInitializer) return closure.getAt(0, "this");  // Return "this" if empty return from initializer
 
             return returnValue.value;
+        } finally {
+            interpreter.exit();
+            event.end();
+            if (event.shouldCommit()) {  // Only when recording and the call took longer than the threshold
+                event.function = declaration.name.lexeme;
+                event.line = declaration.name.line;
+                event.commit();
+            }
         }
 
         if (isInitializer) return closure.getAt(0, "this");  // Return "this" if a user calls init directly
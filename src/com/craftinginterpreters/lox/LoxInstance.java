@@ -2,10 +2,16 @@ package com.craftinginterpreters.lox;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-class LoxInstance {
-    private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+class LoxInstance implements LoxObject {
+    final LoxClass klass;
+
+    // Concurrent so tasks can share instances (see LoxTask). It can't hold null, so nil fields are
+    // stored as NIL
+    private final Map<String, Object> fields = new ConcurrentHashMap<>();
+    private static final Object NIL = new Object();
+    static final Object ABSENT = new Object();
 
     /*
         Lox uses bound methods, which means that when methods are called, they refer to the instance they
@@ -38,9 +44,11 @@ class LoxInstance {
 
     // LoxInstance getting and setting can be done dynamically because the resolver ensures
     // you'll always get the intended instance every time you refer to an instance name
-    Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+    @Override
+    public Object get(Token name) {
+        Object value = fields.get(name.lexeme);
+        if (value != null) {
+            return value == NIL ? null : value;
         }
 
         LoxFunction method = klass.findMethod(name.lexeme);
@@ -50,8 +58,30 @@ class LoxInstance {
         throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
     }
 
-    void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+    // The field's value, or ABSENT if there's no such field. For compiled code, which finds methods itself
+    Object field(String name) {
+        Object value = fields.get(name);
+        if (value == null) return ABSENT;
+        return value == NIL ? null : value;
+    }
+
+    // Returns true if this added a new field (for MemoryAccount)
+    boolean set(Token name, Object value) {
+        return set(name.lexeme, value);
+    }
+
+    boolean set(String name, Object value) {
+        if (fields.put(name, value == null ? NIL : value) != null) return false;
+
+        klass.fieldAdded(name);
+        return true;
+    }
+
+    // Every field and its value right now
+    Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new HashMap<>();
+        fields.forEach((name, value) -> snapshot.put(name, value == NIL ? null : value));
+        return snapshot;
     }
 
     @Override
@@ -0,0 +1,174 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * The counters behind LoxMetricsMXBean. They're LongAdders, which keep a separate cell per contending
+ * thread, so tasks and parallelMap() workers adding to them at the same time don't fight over one cache
+ * line. The hot counts (statements, calls, ...) are batched up in each Interpreter first anyway, see
+ * Interpreter.flushMetrics().
+ */
+class LoxMetrics implements LoxMetricsMXBean {
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    final LongAdder scripts = new LongAdder();
+    final LongAdder statements = new LongAdder();
+    final LongAdder calls = new LongAdder();
+    final LongAdder environments = new LongAdder();
+    final LongAdder instances = new LongAdder();
+    final LongAccumulator maxCallDepth = new LongAccumulator(Math::max, 0);
+    final LongAdder runtimeErrors = new LongAdder();
+    final LongAdder cacheHits = new LongAdder();
+    final LongAdder cacheMisses = new LongAdder();
+    final LongAdder inlineCacheHits = new LongAdder();
+    final LongAdder inlineCacheMisses = new LongAdder();
+
+    private final Rate statementRate = new Rate();
+    private final Rate callRate = new Rate();
+    private final Rate environmentRate = new Rate();
+    private final Rate instanceRate = new Rate();
+
+    private ObjectName name = null;  // While registered
+
+    // Events per second between reads of a count, recomputed at most once a second so two tools polling
+    // at once don't see rates over a few milliseconds
+    private static class Rate {
+        private long lastNanos = System.nanoTime();
+        private long lastCount = 0;
+        private double perSecond = 0;
+
+        synchronized double update(long count) {
+            long now = System.nanoTime();
+            long elapsed = now - lastNanos;
+            if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+                perSecond = (count - lastCount) * (double)TimeUnit.SECONDS.toNanos(1) / elapsed;
+                lastNanos = now;
+                lastCount = count;
+            }
+            return perSecond;
+        }
+    }
+
+    // Register with the platform MBean server as com.craftinginterpreters.lox:type=<type>,id=<n>. Doing it
+    // again while registered just returns the same name
+    synchronized ObjectName register(String type) {
+        if (name != null) return name;
+
+        try {
+            ObjectName registered = new ObjectName("com.craftinginterpreters.lox:type=" + type + ",id=" + ids.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, registered);
+            name = registered;
+            return name;
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register Lox metrics", e);
+        }
+    }
+
+    synchronized void unregister() {
+        if (name == null) return;
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(name);
+        } catch (JMException e) {
+            // Somebody else already unregistered it, which is what we wanted anyway
+        }
+        name = null;
+    }
+
+    @Override
+    public long getScriptsExecuted() {
+        return scripts.sum();
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return statements.sum();
+    }
+
+    @Override
+    public double getStatementsPerSecond() {
+        return statementRate.update(statements.sum());
+    }
+
+    @Override
+    public long getCallsExecuted() {
+        return calls.sum();
+    }
+
+    @Override
+    public double getCallsPerSecond() {
+        return callRate.update(calls.sum());
+    }
+
+    @Override
+    public long getEnvironmentsAllocated() {
+        return environments.sum();
+    }
+
+    @Override
+    public double getEnvironmentsPerSecond() {
+        return environmentRate.update(environments.sum());
+    }
+
+    @Override
+    public long getInstancesAllocated() {
+        return instances.sum();
+    }
+
+    @Override
+    public double getInstancesPerSecond() {
+        return instanceRate.update(instances.sum());
+    }
+
+    @Override
+    public int getMaxCallDepth() {
+        return (int)maxCallDepth.get();
+    }
+
+    @Override
+    public long getRuntimeErrors() {
+        return runtimeErrors.sum();
+    }
+
+    @Override
+    public long getCompileCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCompileCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public double getCompileCacheHitRatio() {
+        long hits = cacheHits.sum();
+        long total = hits + cacheMisses.sum();
+        return total == 0 ? 0 : (double)hits / total;
+    }
+
+    @Override
+    public long getInlineCacheHits() {
+        return inlineCacheHits.sum();
+    }
+
+    @Override
+    public long getInlineCacheMisses() {
+        return inlineCacheMisses.sum();
+    }
+
+    @Override
+    public double getInlineCacheHitRatio() {
+        long hits = inlineCacheHits.sum();
+        long total = hits + inlineCacheMisses.sum();
+        return total == 0 ? 0 : (double)hits / total;
+    }
+}
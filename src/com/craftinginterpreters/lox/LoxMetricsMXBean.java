@@ -0,0 +1,53 @@
+package com.craftinginterpreters.lox;
+
+/*
+ * Live counters for a LoxContext or a LoxEngine (everything run by any script it compiled), visible over
+ * JMX once registerMetrics() has been called on it. Counts are totals since it was created. Rates are
+ * per second, averaged over the time since that rate was last read (or at least a second), so a
+ * monitoring tool polling every N seconds gets the rate over its last N seconds.
+ *
+ * Interpreters count into plain fields and only add those to the shared counters every few thousand
+ * steps (and when a script or task finishes), so the counts can trail a running script by that much.
+ */
+public interface LoxMetricsMXBean {
+    long getScriptsExecuted();
+
+    long getStatementsExecuted();
+
+    double getStatementsPerSecond();
+
+    // Calls to Lox functions and methods, natives don't count
+    long getCallsExecuted();
+
+    double getCallsPerSecond();
+
+    // Environments made for blocks and calls
+    long getEnvironmentsAllocated();
+
+    double getEnvironmentsPerSecond();
+
+    long getInstancesAllocated();
+
+    double getInstancesPerSecond();
+
+    // Deepest nesting of Lox calls any one interpreter has reached
+    int getMaxCallDepth();
+
+    long getRuntimeErrors();
+
+    // Compiles that were skipped because the compiled form was cached (LoxEngine's cache, or ScriptCache
+    // for the lox command), and compiles that had to be done
+    long getCompileCacheHits();
+
+    long getCompileCacheMisses();
+
+    double getCompileCacheHitRatio();
+
+    // Calls and method lookups in compiled code that went to the function or class their site had cached,
+    // and ones that didn't (the first at each site, and every one at a site that has seen several)
+    long getInlineCacheHits();
+
+    long getInlineCacheMisses();
+
+    double getInlineCacheHitRatio();
+}
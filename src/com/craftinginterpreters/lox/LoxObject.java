@@ -0,0 +1,7 @@
+package com.craftinginterpreters.lox;
+
+// Anything that can have properties read off it with '.'. Instances of Lox classes, plus the handful of
+// objects natives hand back (like tasks)
+interface LoxObject {
+    Object get(Token name);
+}
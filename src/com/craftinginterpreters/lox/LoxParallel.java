@@ -0,0 +1,231 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * The natives parallelMap(fn, count) and parallelReduce(fn, init, count, combine), which call a Lox
+ * function for every index in 0..count-1 spread over the common ForkJoinPool.
+ *
+ *   parallelMap(fn, count)                    - fn(i) for every i. Returns the results as an object with
+ *                                               .count and .get(i), in index order
+ *   parallelReduce(fn, init, count, combine)  - fn(i) for every i, combined in index order with
+ *                                               combine(a, b), starting from init: for count 3 that's
+ *                                               combine(combine(combine(init, fn(0)), fn(1)), fn(2))
+ *
+ * parallelReduce() splits the indices into ranges that are combined separately and then combines the
+ * partial results, so combine has to be associative: combine(combine(a, b), c) has to be the same as
+ * combine(a, combine(b, c)). It doesn't have to be commutative, the order is kept. init is only combined
+ * once, on the left of everything, so it doesn't have to be an identity.
+ *
+ * The range is halved until a piece is small enough to be worth running on its own, and each piece gets
+ * its own forked Interpreter, so workers only share the globals and whatever fn closed over (the same
+ * rules as spawn(), see LoxTask). fn should be pure: the calls happen in no particular order. If one of
+ * them raises a runtime error, the rest are cancelled where possible and the error is raised from the
+ * call to parallelMap() or parallelReduce().
+ *
+ * Workers are ForkJoin threads, so fn shouldn't block on channels or tasks. Nested parallelMap() calls
+ * are fine though, they just join the same pool.
+ */
+class LoxParallel {
+    private static final int PIECES_PER_WORKER = 8;  // Extra pieces so uneven calls still balance out
+
+    static LoxCallable map() {
+        return new Native(2) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxCallable function = function(arguments.get(0), 1);
+                int count = count(arguments.get(1));
+
+                Object[] results = new Object[count];
+                if (count > 0) {
+                    ForkJoinPool.commonPool().invoke(new MapRange(interpreter, function, results, 0, count, grain(count)));
+                }
+                return new Results(results);
+            }
+        };
+    }
+
+    static LoxCallable reduce() {
+        return new Native(4) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxCallable function = function(arguments.get(0), 1);
+                Object init = arguments.get(1);
+                int count = count(arguments.get(2));
+                LoxCallable combine = function(arguments.get(3), 2);
+
+                if (count == 0) return init;
+                return ForkJoinPool.commonPool().invoke(
+                    new ReduceRange(interpreter, function, combine, init, 0, count, grain(count)));
+            }
+        };
+    }
+
+    private static class MapRange extends RecursiveAction {
+        private final Interpreter interpreter;
+        private final LoxCallable function;
+        private final Object[] results;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        MapRange(Interpreter interpreter, LoxCallable function, Object[] results, int from, int to, int grain) {
+            this.interpreter = interpreter;
+            this.function = function;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                Interpreter forked = interpreter.fork();
+                try {
+                    for (int i = from; i < to; i++) {
+                        results[i] = function.call(forked, Arrays.asList((double)i));
+                    }
+                } finally {
+                    forked.flushMetrics();
+                }
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new MapRange(interpreter, function, results, from, middle, grain),
+                      new MapRange(interpreter, function, results, middle, to, grain));
+        }
+    }
+
+    // Combines fn(i) for every i in from..to-1. Only the leftmost range has an init to start from (see
+    // NO_INIT), every other one starts from its first index's value
+    private static class ReduceRange extends RecursiveTask<Object> {
+        private static final Object NO_INIT = new Object();  // Lox values can be nil, so null won't do
+
+        private final Interpreter interpreter;
+        private final LoxCallable function;
+        private final LoxCallable combine;
+        private final Object init;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        ReduceRange(Interpreter interpreter, LoxCallable function, LoxCallable combine, Object init,
+                    int from, int to, int grain) {
+            this.interpreter = interpreter;
+            this.function = function;
+            this.combine = combine;
+            this.init = init;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Object compute() {
+            if (to - from <= grain) {
+                Interpreter forked = interpreter.fork();
+                try {
+                    Object accumulator = function.call(forked, Arrays.asList((double)from));
+                    if (init != NO_INIT) accumulator = combine.call(forked, Arrays.asList(init, accumulator));
+                    for (int i = from + 1; i < to; i++) {
+                        Object value = function.call(forked, Arrays.asList((double)i));
+                        accumulator = combine.call(forked, Arrays.asList(accumulator, value));
+                    }
+                    return accumulator;
+                } finally {
+                    forked.flushMetrics();
+                }
+            }
+
+            int middle = (from + to) >>> 1;
+            ReduceRange left = new ReduceRange(interpreter, function, combine, init, from, middle, grain);
+            ReduceRange right = new ReduceRange(interpreter, function, combine, NO_INIT, middle, to, grain);
+            right.fork();
+            Object leftResult = left.compute();
+            Object rightResult = right.join();
+            Interpreter forked = interpreter.fork();
+            try {
+                return combine.call(forked, Arrays.asList(leftResult, rightResult));
+            } finally {
+                forked.flushMetrics();
+            }
+        }
+    }
+
+    // What parallelMap() returns
+    private static class Results implements LoxObject {
+        private final Object[] values;
+
+        private final LoxCallable get = new Native(1) {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object index = arguments.get(0);
+                if (!(index instanceof Double) || (double)index != Math.floor((double)index) ||
+                        (double)index < 0 || (double)index >= values.length) {
+                    throw new RuntimeError(null, "Index must be a whole number between 0 and " + (values.length - 1) + ".");
+                }
+                return values[(int)(double)index];
+            }
+        };
+
+        Results(Object[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public Object get(Token name) {
+            if (name.lexeme.equals("count")) return (double)values.length;
+            if (name.lexeme.equals("get")) return get;
+
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        @Override
+        public String toString() {
+            return "<results>";
+        }
+    }
+
+    private abstract static class Native implements LoxCallable {
+        private final int arity;
+
+        Native(int arity) {
+            this.arity = arity;
+        }
+
+        @Override
+        public int arity() { return arity; }
+
+        @Override
+        public String toString() { return "<native fn>"; }
+    }
+
+    private static LoxCallable function(Object value, int arity) {
+        if (!(value instanceof LoxCallable)) throw new RuntimeError(null, "Can only call functions and classes.");
+
+        LoxCallable function = (LoxCallable)value;
+        if (function.arity() >= 0 && function.arity() != arity) {
+            throw new RuntimeError(null, "Expected a function that takes " + arity + (arity == 1 ? " argument." : " arguments."));
+        }
+        return function;
+    }
+
+    private static int count(Object value) {
+        if (!(value instanceof Double) || (double)value != Math.floor((double)value) ||
+                (double)value < 0 || (double)value > Integer.MAX_VALUE) {
+            throw new RuntimeError(null, "Count must be a whole number that isn't negative.");
+        }
+        return (int)(double)value;
+    }
+
+    private static int grain(int count) {
+        int pieces = ForkJoinPool.getCommonPoolParallelism() * PIECES_PER_WORKER;
+        return Math.max(1, count / pieces);
+    }
+}
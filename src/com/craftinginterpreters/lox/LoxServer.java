@@ -0,0 +1,292 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * lox --serve <socket> keeps one JVM running and takes scripts over a Unix domain socket, so short
+ * scripts don't pay for JVM startup and a cold JIT every time (see LoxClient for the other end). Scripts
+ * are compiled through one LoxEngine, so running the same script again skips the front end too, and each
+ * one runs in its own context with fresh globals, on one of a fixed number of threads.
+ *
+ * The protocol, all integers big-endian:
+ *
+ *   request:   kind (1 byte, REQUEST_PATH or REQUEST_SOURCE), length (int), UTF-8 bytes of the absolute
+ *              path or the source
+ *   response:  any number of frames, each kind (1 byte, OUTPUT or ERROR), length (int), bytes, then an
+ *              EXIT frame: kind, exit code (int). The code is the one lox <script> would have exited with
+ *
+ * The length of a request is capped at MAX_REQUEST_BYTES, so a client can't make the server allocate
+ * whatever it likes. One request per connection. The socket file is removed on startup if it's left over
+ * from a server that didn't shut down cleanly, and again on exit.
+ *
+ * Each script runs with an ExecutionBudget: a time limit (DEFAULT_TIMEOUT unless --timeout says
+ * otherwise) and optionally a step limit. It's also cancelled as soon as writing its output to the client
+ * fails, so a client that gives up doesn't leave its script running. At most --threads scripts run at
+ * once and MAX_QUEUED more wait for a thread. Past that a request is turned away with exit code 75, try
+ * again later.
+ *
+ * Whoever can connect to the socket can run any script as the user the server runs as, and have it read
+ * any file that user can (a REQUEST_PATH, and a compile error echoes the source back). So the socket is
+ * created owner-only (0600, bound inside a 0700 directory until then), and the server's user is the
+ * trust boundary: don't serve on a socket other users are meant to reach.
+ */
+class LoxServer {
+    static final byte REQUEST_PATH = 1;
+    static final byte REQUEST_SOURCE = 2;
+
+    static final byte OUTPUT = 1;
+    static final byte ERROR = 2;
+    static final byte EXIT = 3;
+
+    static final int MAX_REQUEST_BYTES = 64 * 1024 * 1024;
+    static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(60);
+    static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+    static final int MAX_QUEUED = 64;
+
+    private final LoxEngine engine = new LoxEngine();
+    private final ThreadPoolExecutor executor;
+    private final Duration timeout;  // null for none
+    private final long maxSteps;  // 0 for none
+
+    private LoxServer(Duration timeout, long maxSteps, int threads) {
+        this.timeout = timeout;
+        this.maxSteps = maxSteps;
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED), runnable -> {
+                Thread thread = new Thread(runnable, "lox-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);  // An idle server doesn't hold on to threads
+    }
+
+    static void serve(Path socket, Duration timeout, long maxSteps, int threads) throws IOException {
+        new LoxServer(timeout, maxSteps, threads).run(socket);
+    }
+
+    private void run(Path socket) throws IOException {
+        Files.deleteIfExists(socket);
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            bind(server, socket);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException ignored) {
+                }
+            }));
+
+            for (;;) {
+                SocketChannel connection = server.accept();
+                try {
+                    executor.execute(() -> handle(connection));
+                } catch (RejectedExecutionException e) {
+                    refuse(connection);
+                }
+            }
+        }
+    }
+
+    // Bind server to socket with only the owner allowed in. The socket file gets the umask's permissions
+    // when it's created, so it's created in a directory nobody else can enter, fixed, and only then moved
+    // to where clients look for it
+    private static void bind(ServerSocketChannel server, Path socket) throws IOException {
+        Path parent = socket.toAbsolutePath().getParent();
+        Path directory = Files.createTempDirectory(parent, ".lox-serve-",
+            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        try {
+            Path temporary = directory.resolve("socket");
+            server.bind(UnixDomainSocketAddress.of(temporary));
+            Files.setPosixFilePermissions(temporary, PosixFilePermissions.fromString("rw-------"));
+            Files.move(temporary, socket, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(directory.resolve("socket"));
+            Files.delete(directory);
+        }
+    }
+
+    // Every thread is busy and the queue is full. Say so without reading the request, rather than make
+    // the client wait behind everybody else
+    private static void refuse(SocketChannel connection) {
+        try (connection) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(connection));
+            byte[] message = "Server is busy, try again later.\n".getBytes(StandardCharsets.UTF_8);
+            out.writeByte(ERROR);
+            out.writeInt(message.length);
+            out.write(message);
+            out.writeByte(EXIT);
+            out.writeInt(75);
+            out.flush();
+        } catch (IOException e) {
+            // The client went away. Nothing to tell it
+        }
+    }
+
+    private void handle(SocketChannel connection) {
+        try (connection) {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(connection));
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(connection));
+            ExecutionBudget budget = new ExecutionBudget();
+            PrintStream scriptOut = new PrintStream(new FrameStream(out, OUTPUT, budget), true, StandardCharsets.UTF_8);
+            PrintStream scriptErr = new PrintStream(new FrameStream(out, ERROR, budget), true, StandardCharsets.UTF_8);
+
+            int exitCode;
+            try {
+                exitCode = respond(in, scriptOut, scriptErr, budget);
+            } catch (IOException e) {
+                throw e;
+            } catch (Throwable e) {
+                // Whatever went wrong, the client still gets an answer rather than a dropped connection.
+                // A script that recurses too deep ends up here, there's nothing in the interpreter to stop it
+                scriptErr.println(e instanceof StackOverflowError ? "Stack overflow." : "Internal error: " + e);
+                exitCode = 70;
+            } finally {
+                scriptOut.flush();
+                scriptErr.flush();
+            }
+
+            // PrintStream keeps write errors to itself, so this is how we find out the client is gone. The
+            // script has finished, but tasks it spawned may not have
+            if (scriptOut.checkError() || scriptErr.checkError()) {
+                budget.cancel();
+                return;
+            }
+
+            synchronized (out) {
+                out.writeByte(EXIT);
+                out.writeInt(exitCode);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client went away. Nothing to tell it
+        }
+    }
+
+    private int respond(DataInputStream in, PrintStream scriptOut, PrintStream scriptErr, ExecutionBudget budget)
+            throws IOException {
+        byte kind = in.readByte();
+        int length = in.readInt();
+        if (length < 0 || length > MAX_REQUEST_BYTES) {
+            scriptErr.println("Request length must be between 0 and " + MAX_REQUEST_BYTES + " bytes.");
+            return 64;
+        }
+        byte[] request = new byte[length];
+        in.readFully(request);
+
+        try {
+            String source;
+            if (kind == REQUEST_PATH) {
+                // Same charset as lox <script> reading it, so both compile the same thing
+                Path path = Paths.get(new String(request, StandardCharsets.UTF_8));
+                source = new String(Files.readAllBytes(path), Charset.defaultCharset());
+            } else if (kind == REQUEST_SOURCE) {
+                source = new String(request, StandardCharsets.UTF_8);
+            } else {
+                scriptErr.println("Unknown request.");
+                return 64;
+            }
+
+            // The time limit starts now, so it isn't spent waiting for a slow client to send the request
+            if (timeout != null) budget.timeout(timeout);
+            if (maxSteps > 0) budget.maxSteps(maxSteps);
+            try {
+                engine.compile(source).run(new Bindings(), scriptOut, scriptErr, budget);
+                return 0;
+            } catch (LoxException e) {
+                scriptErr.println(e.getMessage());
+                return e.isCompileError() ? 65 : 70;
+            }
+        } catch (IOException e) {
+            scriptErr.println("Could not read script: " + e.getMessage());
+            return 66;
+        }
+    }
+
+    // Sends whatever was written since the last flush as one frame. The PrintStreams around it flush on
+    // every newline, so output reaches the client line by line as the script runs. If the client has gone
+    // away, the script is cancelled: nobody is left to read what it prints
+    private static class FrameStream extends OutputStream {
+        private final DataOutputStream out;  // Shared by both streams of a request, so frames lock it
+        private final byte kind;
+        private final ExecutionBudget budget;  // The request's
+        private byte[] buffer = new byte[256];
+        private int count = 0;
+
+        FrameStream(DataOutputStream out, byte kind, ExecutionBudget budget) {
+            this.out = out;
+            this.kind = kind;
+            this.budget = budget;
+        }
+
+        @Override
+        public void write(int b) {
+            if (count == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            buffer[count++] = (byte)b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            if (count + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + length));
+            }
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count == 0) return;
+
+            try {
+                synchronized (out) {
+                    out.writeByte(kind);
+                    out.writeInt(count);
+                    out.write(buffer, 0, count);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                budget.cancel();
+                throw e;
+            } finally {
+                count = 0;  // Sent or not, it's not kept around for next time
+            }
+        }
+    }
+
+    // Read one response, copying its frames to out and err, and return the exit code
+    static int readResponse(InputStream input, OutputStream out, OutputStream err) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        for (;;) {
+            byte kind = in.readByte();
+            if (kind == EXIT) return in.readInt();
+
+            byte[] bytes = in.readNBytes(in.readInt());
+            OutputStream target = kind == OUTPUT ? out : err;
+            target.write(bytes);
+            target.flush();
+        }
+    }
+}
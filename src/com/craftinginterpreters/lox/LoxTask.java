@@ -0,0 +1,96 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Handle for a function running on its own thread, made by the native spawn(fn). task.join() waits for
+ * the function to finish and returns what it returned, or rethrows the runtime error that stopped it.
+ * Tasks run on virtual threads when the JVM has them (21+), so starting tens of thousands is cheap.
+ * Older JVMs fall back to a pool of ordinary daemon threads. Either way, a script that ends doesn't
+ * wait for tasks nobody joined.
+ *
+ * Each task runs on its own forked Interpreter (its own current environment), but the globals and
+ * whatever the function closed over are shared with everything else. The rules for that shared state:
+ *
+ *   - spawn() happens-before the task starts, and everything the task did happens-before join()
+ *     returns. Communicating through join() is always safe.
+ *   - Instance fields are safe to read and write from any number of tasks. Each access is atomic and
+ *     instances never get corrupted, but two tasks doing "o.n = o.n + 1" can still lose an update.
+ *   - Globals are safe to read, assign and declare from any number of tasks (see GlobalEnvironment).
+ *     An assignment is seen by every read that comes after it, but "n = n + 1" can still lose an update.
+ *   - Local variables are not synchronized. Assigning to a local that a closure shares with another
+ *     task is a plain racy write that the other task may see late (or, without a join, never).
+ */
+class LoxTask implements LoxObject {
+    private static final ExecutorService executor = newExecutor();
+
+    private final Future<Object> result;
+
+    private final LoxCallable join = new LoxCallable() {
+        @Override
+        public int arity() { return 0; }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return join();
+        }
+
+        @Override
+        public String toString() { return "<native fn>"; }
+    };
+
+    LoxTask(Interpreter interpreter, LoxCallable function) {
+        Interpreter forked = interpreter.fork();
+        result = executor.submit(() -> {
+            try {
+                return function.call(forked, Collections.emptyList());
+            } finally {
+                forked.flushMetrics();
+            }
+        });
+    }
+
+    private Object join() {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;  // RuntimeError keeps the line it failed on
+            if (cause instanceof Error) throw (Error)cause;
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError(null, "Interrupted while joining a task.");
+        }
+    }
+
+    @Override
+    public Object get(Token name) {
+        if (name.lexeme.equals("join")) return join;
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+
+    private static ExecutorService newExecutor() {
+        try {
+            // Looked up reflectively so this still builds and runs on 17
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "lox-task");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Roughly how much memory one context's script is holding on to, so a runaway script can be stopped
+ * (ExecutionBudget.maxMemory()) before it takes the whole JVM down with it.
+ *
+ * The interpreter charges every closure, class, instance, field and concatenated string it makes with an
+ * estimate of its size (the constants below). Environments made for calls and blocks aren't charged when
+ * they're made: almost all of them are garbage as soon as the call or block ends, and counting them would
+ * put a cost on every call. The ones that stay around are the ones a closure captured, so a closure is
+ * charged for its environment too.
+ *
+ * Adding that up exactly for every object would be too slow and wouldn't say when things get freed
+ * anyway, so it's sampled instead: each Interpreter counts bytes in a plain field and only every
+ * SAMPLE_INTERVAL bytes or so hands the object it just made to sample(), which counts it for all the
+ * bytes since the last sample and watches it with a PhantomReference. When the GC collects a sampled
+ * object, its bytes stop counting. A script that builds a big structure keeps its samples alive and its
+ * usage goes up. One that makes lots of garbage sees its samples die and its usage stay flat.
+ *
+ * That makes the numbers estimates in two ways: they're only as fine as the sample interval, and freed
+ * memory only shows up once the GC has actually collected it. So going over the quota doesn't fail the
+ * script straight away, only if usage is still over a couple of GCs later, when anything that was only
+ * garbage should have been counted as freed.
+ */
+class MemoryAccount {
+    // Estimated sizes, in bytes, with compressed pointers. Close enough to tell a small script from a
+    // runaway one
+    static final int FUNCTION = 32;
+    static final int CLOSURE = FUNCTION + 96 + 2 * 40;  // And the environment it captured, with a couple of variables
+    static final int CLASS = 120;
+    static final int INSTANCE = 96;  // The object and its ConcurrentHashMap
+    static final int FIELD = 48;
+    static final int STRING = 40;  // Plus a byte per character (Latin-1, two for anything else)
+
+    static final int SAMPLE_INTERVAL = 32 * 1024;  // On average
+
+    private static final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+    private static class Sample extends PhantomReference<Object> {
+        final long bytes;
+
+        Sample(Object object, long bytes, ReferenceQueue<Object> queue) {
+            super(object, queue);
+            this.bytes = bytes;
+        }
+    }
+
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+    private final Set<Sample> samples = ConcurrentHashMap.newKeySet();  // Keeps the references themselves alive
+
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong inUse = new AtomicLong();
+    private final AtomicLong peak = new AtomicLong();
+    private volatile long overQuotaSince = -1;  // Collection count when usage went over the quota
+
+    // Bytes until the next sample. Random, because a loop allocating the same things in the same order
+    // would otherwise land on the same one of them every time, and only ever sample (say) the garbage
+    // environment of a call and never the instance it makes
+    static int nextSampleInterval() {
+        return SAMPLE_INTERVAL / 2 + ThreadLocalRandom.current().nextInt(SAMPLE_INTERVAL);
+    }
+
+    long allocated() {
+        return allocated.get();
+    }
+
+    long inUse() {
+        drain();
+        return inUse.get();
+    }
+
+    long peak() {
+        return peak.get();
+    }
+
+    // Count bytes of allocation, which ended with object, and check the quota (0 for none)
+    void sample(Object object, long bytes, long quota) {
+        drain();
+
+        samples.add(new Sample(object, bytes, collected));
+        allocated.addAndGet(bytes);
+        long current = inUse.addAndGet(bytes);
+        peak.accumulateAndGet(current, Math::max);
+
+        if (quota <= 0 || current <= quota) {
+            overQuotaSince = -1;
+            return;
+        }
+
+        // Collected samples are queued by another thread some time after the GC that found them, so give
+        // it until the GC after that before believing the number
+        long collections = collectionCount();
+        if (overQuotaSince == -1) {
+            overQuotaSince = collections;
+        } else if (collections >= overQuotaSince + 2) {
+            throw new RuntimeError(null, "Script used more than its memory limit.");
+        }
+    }
+
+    private void drain() {
+        Reference<?> reference;
+        while ((reference = collected.poll()) != null) {
+            Sample sample = (Sample)reference;
+            if (samples.remove(sample)) inUse.addAndGet(-sample.bytes);
+        }
+    }
+
+    private static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+}
@@ -0,0 +1,172 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * The second tier (lox --optimize, or LoxContext.enableOptimization()). Every function starts out
+ * interpreted, and once it has been called COMPILE_THRESHOLD times the ClosureCompiler compiles it and
+ * every later call runs the compiled code instead. A function the TypeProfile says got hot on an earlier
+ * run is compiled on its first call, and its nodes start out specialized the way they ended up last time.
+ *
+ * Loops get the same treatment, counted in iterations rather than calls, because a script that spends all
+ * its time in one top-level loop only ever enters it once. Once a loop has run LOOP_THRESHOLD iterations
+ * the interpreter switches to its compiled code between one iteration and the next (on-stack replacement,
+ * see Interpreter.visitWhileStmt()). There's nothing to transfer: compiled code keeps its variables in the
+ * same Environment the interpreter was using, so it carries on from exactly where the interpreter was.
+ *
+ * Compiled code that an Assumption it made no longer holds for is thrown away the next time it's asked
+ * for, and the function or loop starts counting towards being compiled again from zero.
+ *
+ * With tracing on (lox --trace, or LoxContext.enableTracing()) a loop that gets hot isn't compiled right
+ * away. The interpreter runs its next iteration in a TraceRecorder instead, and the TraceCompiler compiles
+ * the loop along the path that iteration took, with the functions it called inlined. A loop only gets one
+ * trace: once that's been thrown away, it's compiled as written like without tracing. Functions are
+ * compiled the same either way.
+ *
+ * One tier serves a context and every interpreter forked from it, so tasks share compiled code. Call
+ * counts are plain ints that threads can race on: a lost update only means compiling a little later.
+ */
+class OptimizingTier {
+    static final int COMPILE_THRESHOLD = 500;  // Calls before a function is worth compiling
+    static final int LOOP_THRESHOLD = 1000;  // Iterations, over every time it was entered, before a loop is
+
+    final TypeProfile profile = new TypeProfile();
+    private final Map<Expr, Integer> locals;
+    private final ClosureCompiler compiler;
+    private final boolean tracing;
+    private final Map<Stmt.Function, FunctionState> functions = new ConcurrentHashMap<>();
+    private final Map<Stmt.While, LoopState> loops = new ConcurrentHashMap<>();
+
+    private static class FunctionState {
+        int calls = 0;
+        volatile CompiledFunction compiled = null;
+    }
+
+    private static class LoopState {
+        int iterations = 0;
+        volatile CompiledLoop compiled = null;
+        volatile boolean traceable;  // Not traced yet
+        volatile TraceCompiler tracer = null;  // What compiled its trace, for the feedback its nodes gathered
+    }
+
+    OptimizingTier(Map<Expr, Integer> locals) {
+        this(locals, false);
+    }
+
+    OptimizingTier(Map<Expr, Integer> locals, boolean tracing) {
+        this.locals = locals;
+        this.compiler = new ClosureCompiler(locals, profile);
+        this.tracing = tracing;
+    }
+
+    // Counts a call to function. Returns its compiled code, compiling it first if it just got hot, or null
+    // while it's still cold
+    CompiledFunction compiled(Stmt.Function function) {
+        FunctionState state = functions.get(function);
+        if (state == null) state = functions.computeIfAbsent(function, f -> new FunctionState());
+
+        CompiledFunction compiled = state.compiled;
+        if (compiled != null) {
+            if (compiled.isValid()) return compiled;
+            synchronized (state) {
+                if (state.compiled == compiled) {
+                    state.compiled = null;
+                    state.calls = 0;
+                }
+            }
+        }
+        if (++state.calls < COMPILE_THRESHOLD && !profile.isHot(function)) return null;
+
+        synchronized (state) {
+            if (state.compiled == null) state.compiled = compiler.compile(function);
+            return state.compiled;
+        }
+    }
+
+    // Adds iterations the interpreter ran of loop to its count. Returns the loop's compiled code, compiling
+    // it first if it just got hot, or null while it's still cold
+    CompiledLoop compiledLoop(Stmt.While loop, int iterations) {
+        LoopState state = loops.get(loop);
+        if (state == null) state = loops.computeIfAbsent(loop, this::loopState);
+
+        CompiledLoop compiled = state.compiled;
+        if (compiled != null) {
+            if (compiled.isValid()) return compiled;
+            synchronized (state) {
+                if (state.compiled == compiled) {
+                    state.compiled = null;
+                    state.iterations = 0;
+                    state.traceable = false;
+                }
+            }
+        }
+        state.iterations += iterations;
+        if (state.iterations < LOOP_THRESHOLD && !profile.isHot(loop)) return null;
+        if (state.traceable) return null;  // It's up to the interpreter to record an iteration, see recorder()
+
+        synchronized (state) {
+            if (state.compiled == null) state.compiled = compiler.compileLoop(loop);
+            return state.compiled;
+        }
+    }
+
+    // A recorder for the interpreter to run the next iteration of loop in, if it's hot but waiting for a
+    // trace. Null if it isn't
+    TraceRecorder recorder(Stmt.While loop, Interpreter interpreter) {
+        LoopState state = loops.get(loop);
+        if (state == null || !state.traceable || state.compiled != null) return null;
+        if (state.iterations < LOOP_THRESHOLD && !profile.isHot(loop)) return null;
+        return new TraceRecorder(interpreter);
+    }
+
+    // Compiles loop along the path recorded in trace. Returns the compiled trace
+    CompiledLoop compiledTrace(Stmt.While loop, TraceRecorder trace) {
+        LoopState state = loops.get(loop);
+        synchronized (state) {
+            if (state.compiled == null) {
+                state.tracer = new TraceCompiler(locals, profile, trace);
+                state.compiled = state.tracer.compileLoop(loop);
+            }
+            return state.compiled;
+        }
+    }
+
+    private LoopState loopState(Stmt.While loop) {
+        LoopState state = new LoopState();
+        state.traceable = tracing;
+        return state;
+    }
+
+    // Load what earlier runs of program learned, see TypeProfile. Call it before running program
+    boolean loadProfile(Path path, byte[] hash, List<Stmt> program) {
+        return profile.load(path, hash, program);
+    }
+
+    // Save what this run learned on top of what it loaded. Call it once program has finished
+    void storeProfile(Path path, byte[] hash, List<Stmt> program) {
+        for (Map.Entry<Stmt.Function, FunctionState> entry : functions.entrySet()) {
+            if (entry.getValue().compiled != null) profile.hot(entry.getKey());
+        }
+        for (Map.Entry<Stmt.While, LoopState> entry : loops.entrySet()) {
+            if (entry.getValue().compiled != null) profile.hot(entry.getKey());
+        }
+
+        // Traces first, so where a function was both inlined into one and compiled on its own, the feedback
+        // from its own code (which saw every call, not just one call site's) is what's kept
+        for (LoopState state : loops.values()) {
+            if (state.tracer != null) record(state.tracer);
+        }
+        record(compiler);
+        profile.store(path, hash, program);
+    }
+
+    private void record(ClosureCompiler compiler) {
+        for (ClosureCompiler.Site site : compiler.sites()) {
+            Object feedback = site.feedback();
+            if (feedback != null) profile.record(site.node(), feedback);
+        }
+    }
+}
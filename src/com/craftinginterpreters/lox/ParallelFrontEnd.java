@@ -0,0 +1,153 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Scans, parses and resolves a big file on every core. SourceSplitter cuts the source at top-level
+ * statement boundaries, the statements get grouped into chunks of roughly CHUNK_SIZE characters, and each
+ * chunk runs through its own Scanner, Parser and Resolver on the common ForkJoinPool. Top-level
+ * statements don't depend on each other at compile time (the Resolver doesn't track the global scope),
+ * so the stitched together result is the same as a single pass over the whole file.
+ *
+ * That only holds for code that parses, though. After a syntax error the parser skips ahead to where it
+ * can start over (Parser.synchronize()), and a chunk boundary would make it start over there instead, so
+ * broken code could get different errors than from a single pass. Chunks only end in front of a keyword
+ * synchronize() stops at, which keeps that rare, and if any chunk has a scanner or parser error the whole
+ * file is compiled again in one pass (LoxContext.compileSerially()) and only that pass's errors are
+ * reported. Broken files are slower, but they're always reported exactly the same way. Resolver errors
+ * don't depend on what's around a statement, so those are reported per chunk, in file order.
+ */
+class ParallelFrontEnd {
+    static final int THRESHOLD = 1024 * 1024;  // Below this, splitting and forking costs more than it saves
+    private static final int CHUNK_SIZE = 128 * 1024;
+
+    // Where Parser.synchronize() starts over after an error, so the only places a chunk can start
+    private static final Set<String> RESYNCHRONIZING = new HashSet<>(Arrays.asList(
+        "class", "fun", "var", "for", "if", "while", "print", "return"));
+
+    private static class Chunk {
+        final int start;
+        final int end;
+        final int line;
+
+        final List<Diagnostic> scanErrors = new ArrayList<>();
+        ParseResult parsed;
+        final List<Diagnostic> resolveErrors = new ArrayList<>();
+        final Map<Expr, Integer> locals = new HashMap<>();
+
+        Chunk(int start, int end, int line) {
+            this.start = start;
+            this.end = end;
+            this.line = line;
+        }
+
+        void compile(String source) {
+            LoxEvents.CompilePhase event = new LoxEvents.CompilePhase("scan", end - start);
+            List<Token> tokens = new Scanner(source, start, end, line, scanErrors::add).scanTokens();
+            event.finish(scanErrors.size());
+
+            event = new LoxEvents.CompilePhase("parse", end - start);
+            parsed = new Parser(tokens, null).parseWithDiagnostics();  // Never reports, it records
+            event.finish(parsed.diagnostics.size());
+
+            // Resolving a chunk is wasted if another one has a syntax error, but waiting to find that out
+            // would mean a second round of forking
+            if (scanErrors.isEmpty() && !parsed.hasErrors()) {
+                event = new LoxEvents.CompilePhase("resolve", end - start);
+                new Resolver(locals, resolveErrors::add).resolve(parsed.statements);
+                event.finish(resolveErrors.size());
+            }
+        }
+    }
+
+    private static class CompileChunks extends RecursiveAction {
+        private final String source;
+        private final List<Chunk> chunks;
+        private final int from;
+        private final int to;
+
+        CompileChunks(String source, List<Chunk> chunks, int from, int to) {
+            this.source = source;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                chunks.get(from).compile(source);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new CompileChunks(source, chunks, from, middle), new CompileChunks(source, chunks, middle, to));
+        }
+    }
+
+    // Same contract as LoxContext.compile(): the statements with their distances added to locals, or null
+    // if anything was reported
+    static List<Stmt> compile(String source, Map<Expr, Integer> locals, ErrorReporter reporter) {
+        List<Chunk> chunks = split(source);
+        ForkJoinPool.commonPool().invoke(new CompileChunks(source, chunks, 0, chunks.size()));
+
+        for (Chunk chunk : chunks) {
+            if (!chunk.scanErrors.isEmpty() || chunk.parsed.hasErrors()) {
+                return LoxContext.compileSerially(source, locals, reporter);
+            }
+        }
+
+        boolean hadError = false;
+        for (Chunk chunk : chunks) {
+            hadError |= report(chunk.resolveErrors, reporter);
+        }
+        if (hadError) return null;
+
+        List<Stmt> statements = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            statements.addAll(chunk.parsed.statements);
+            locals.putAll(chunk.locals);
+        }
+        return statements;
+    }
+
+    // The pre-scan is the only part that runs on one core, so it has to stay cheap
+    private static List<Chunk> split(String source) {
+        List<Chunk> chunks = new ArrayList<>();
+        SourceSplitter splitter = new SourceSplitter(source, 0, source.length(), 1);
+
+        do {
+            int start = splitter.position();
+            int line = splitter.line();
+            while (!splitter.isAtEnd() &&
+                    (splitter.position() - start < CHUNK_SIZE || !resynchronizes(source, splitter.position()))) {
+                splitter.next();
+            }
+            chunks.add(new Chunk(start, splitter.position(), line));
+        } while (!splitter.isAtEnd());
+
+        return chunks;
+    }
+
+    // Whether the statement at position starts with a keyword the parser resynchronizes at
+    private static boolean resynchronizes(String source, int position) {
+        int start = SourceSplitter.skipTrivia(source, position, source.length());
+        int end = SourceSplitter.firstWordEnd(source, position, source.length());
+        return RESYNCHRONIZING.contains(source.substring(start, end));
+    }
+
+    private static boolean report(List<Diagnostic> diagnostics, ErrorReporter reporter) {
+        for (Diagnostic diagnostic : diagnostics) {
+            reporter.report(diagnostic);
+        }
+        return !diagnostics.isEmpty();
+    }
+}
@@ -0,0 +1,19 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// What Parser.parseWithDiagnostics() hands back. Statements that failed to parse are null in
+// statements, same as with parse(), and each one has at least one entry in diagnostics
+class ParseResult {
+    final List<Stmt> statements;
+    final List<Diagnostic> diagnostics;
+
+    ParseResult(List<Stmt> statements, List<Diagnostic> diagnostics) {
+        this.statements = statements;
+        this.diagnostics = diagnostics;
+    }
+
+    boolean hasErrors() {
+        return !diagnostics.isEmpty();
+    }
+}
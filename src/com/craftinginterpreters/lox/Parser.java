@@ -18,14 +18,27 @@ import com.craftinginterpreters.lox.Expr.Literal;
 import static com.craftinginterpreters.lox.TokenType.*;
 
 class Parser {
-	private static class ParseError extends RuntimeException {}
+	private static class ParseError extends RuntimeException {
+		ParseError() {
+			super(null, null, false, false);  // Only used to unwind, so don't pay for a stack trace
+		}
+	}
 	
 	private final List<Token> tokens;
+	private final ErrorReporter reporter;
 	private int current = 0;
 	private final int max_args = 8;  // Can probably raise by a lot
 	
-	Parser(List<Token> tokens) {
+	// Only set by parseWithDiagnostics(). Errors are recorded here instead of printed, and instead of
+	// throwing a ParseError the parser sets panicMode and stops consuming tokens (check() fails while
+	// panicking), so every rule falls through and returns up to the nearest declaration(), which
+	// synchronizes from the exact token a thrown ParseError would have left it on
+	private List<Diagnostic> diagnostics = null;
+	private boolean panicMode = false;
+	
+	Parser(List<Token> tokens, ErrorReporter reporter) {
 		this.tokens = tokens;
+		this.reporter = reporter;
 	}
 	
 	List<Stmt> parse() {                
@@ -37,6 +50,16 @@ class Parser {
 	    return statements;
 	}         
 	
+	// Same as parse(), but errors come back in the result instead of going to the reporter, and recovering
+	// from them doesn't throw. Meant for editors that re-parse broken code on every keystroke
+	ParseResult parseWithDiagnostics() {
+		diagnostics = new ArrayList<>();
+		List<Stmt> statements = parse();
+		ParseResult result = new ParseResult(statements, diagnostics);
+		diagnostics = null;
+		return result;
+	}
+	
 	// If in the middle of parsing the next statement, the parser runs into an error, it will
 	// synchronize - that is, skip over successive tokens until it gets to a statement delimiter,
 	// usually a semicolon, but also a keyword that signifies the start of a new statement, such
@@ -47,15 +70,25 @@ class Parser {
 			// var, class, and func declarations go here because declarations statements are only legal
 			// in a few places, and not (for example) in the middle of an expression. Methods are parsed
 			// within classDeclaration()
-			if (match(VAR)) return varDeclaration();
-			if (match(CLASS)) return classDeclaration();
-			if (match(FUN)) return function("function");
+			Stmt stmt;
+			if (match(VAR)) {
+				stmt = varDeclaration();
+			} else if (match(CLASS)) {
+				stmt = classDeclaration();
+			} else if (match(FUN)) {
+				stmt = function("function");
+			} else {
+				stmt = statement();
+			}
 			
-			return statement();
+			if (!panicMode) return stmt;
+			panicMode = false;  // Recording mode got here without throwing
 		} catch (ParseError error) {
-			synchronize();
-			return null;
+			// Fall through to synchronize
 		}
+		
+		synchronize();
+		return null;
 	}
 	
 	private Stmt varDeclaration() {
@@ -82,7 +115,7 @@ class Parser {
 		consume(LEFT_BRACE, "Expect '{'before class body.");
 
 		List<Stmt.Function> methods = new ArrayList<>();
-		while (!check(RIGHT_BRACE) && !isAtEnd()) {
+		while (!check(RIGHT_BRACE) && !isAtEnd() && !panicMode) {
 			methods.add(function("method"));
 		}
 
@@ -92,12 +125,13 @@ class Parser {
 	}
 
 	private Stmt whileStatement() {
+		Token keyword = previous();
 		consume(LEFT_PAREN, "Expect '(' after 'while'.");
 		Expr condition = expression();
 		consume(RIGHT_PAREN, "Expect ')' after condition.");
 		Stmt body = statement();
 
-		return new Stmt.While(condition, body);
+		return new Stmt.While(keyword, condition, body);
 	}
 	
 	private Stmt statement() {
@@ -113,6 +147,7 @@ class Parser {
 
 	// No separate ASDT node for "for" statements since it's just sugar
 	private Stmt forStatement() {
+		Token keyword = previous();
 		consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
 		// for (;;) is valid syntax
@@ -146,7 +181,7 @@ class Parser {
 
 		// If there's no condition supplied to for loop, execute indefinitely
 		if (condition == null) condition = new Expr.Literal(true);
-		body = new Stmt.While(condition, body);
+		body = new Stmt.While(keyword, condition, body);
 
 		// If initializer is provided, execute that statement/expression before the body
 		if (initializer != null) {
@@ -202,7 +237,7 @@ class Parser {
 		if (!check(RIGHT_PAREN)) {
 			do {
 				if (parameters.size() >= max_args) {
-					error(peek(), "Cannot have more than " + max_args + " parameters");
+					report(peek(), "Cannot have more than " + max_args + " parameters");
 				}
 
 				parameters.add(consume(IDENTIFIER, "Expect parameter name"));
@@ -217,7 +252,7 @@ class Parser {
 	private List<Stmt> block() {
 		List<Stmt> statements = new ArrayList<>();
 
-		while (!check(RIGHT_BRACE) && !isAtEnd()) {
+		while (!check(RIGHT_BRACE) && !isAtEnd() && !panicMode) {
 			statements.add(declaration());
 		}
 
@@ -244,7 +279,7 @@ class Parser {
 				return new Expr.Set(get.object, get.name, value);
 			}
 
-			error(equals, "Invalid assignment target."); 
+			report(equals, "Invalid assignment target."); 
 	    }
 
 	    return expr;                                                
@@ -358,7 +393,7 @@ class Parser {
 		if (!check(RIGHT_PAREN)) {
 			do {
 				if (arguments.size() >= max_args) {
-					error(peek(), "Cannot have more than " + max_args + " arguments");
+					report(peek(), "Cannot have more than " + max_args + " arguments");
 				}
 				arguments.add(expression());
 			} while (match(COMMA));
@@ -399,7 +434,9 @@ class Parser {
 			return new Expr.Variable(previous());
 		}
 		
-		throw error(peek(), "Expect expression.");
+		ParseError error = error(peek(), "Expect expression.");
+		if (error != null) throw error;
+		return new Expr.Literal(null);  // Placeholder, the whole declaration gets dropped anyway
 	}
 	
 	// Check if next token matches any type in types
@@ -415,7 +452,7 @@ class Parser {
 	}
 	
 	private boolean check(TokenType type) {
-		if (isAtEnd()) return false;
+		if (isAtEnd() || panicMode) return false;
 		return peek().type == type;
 	}
 	
@@ -440,12 +477,31 @@ class Parser {
 	private Token consume(TokenType type, String message) {
 		if (check(type)) return advance();
 		
-		throw error(peek(), message);
+		ParseError error = error(peek(), message);
+		if (error != null) throw error;
+		return peek();  // Panicking, so nobody looks at this token
 	}
 	
+	// Report an error the parser can't continue past. Returns the ParseError to throw, or null when
+	// recording diagnostics, in which case the caller should just return and let panic mode unwind
 	private ParseError error(Token token, String message) {
-		Lox.error(token, message);
-		return new ParseError();
+		if (diagnostics == null) {
+			reporter.error(token, message);
+			return new ParseError();
+		}
+		
+		report(token, message);
+		panicMode = true;
+		return null;
+	}
+	
+	// Report an error without abandoning the current declaration
+	private void report(Token token, String message) {
+		if (diagnostics == null) {
+			reporter.error(token, message);
+		} else if (!panicMode) {  // Anything found while panicking is just fallout from the first error
+			diagnostics.add(new Diagnostic(token, message));
+		}
 	}
 	
 	private void synchronize() {
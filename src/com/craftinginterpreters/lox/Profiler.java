@@ -0,0 +1,106 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Sampling profiler for Lox code (lox --profile <file> <script>). Every Interpreter keeps a shadow stack
+ * of the Lox functions it's in (see Interpreter.enter()), which costs a couple of stores per call. A
+ * thread here wakes up every INTERVAL, looks at the shadow stack of every interpreter the context is
+ * running (the main one and any tasks or parallelMap() workers), and counts one sample for each stack it
+ * finds. At the end the counts are written in the collapsed-stack format flame graph tools read
+ * (flamegraph.pl, speedscope, ...), one line per distinct stack:
+ *
+ *   <script>;main:12;fib:3;fib:3 1234
+ *
+ * Frames are the function's name and the line it's declared on, outermost first. It's wall-clock time:
+ * a task blocked on a channel or join() still gets samples in the function that's waiting.
+ *
+ * The profiler reads the shadow stacks without any synchronization, so the interpreters don't pay for
+ * it. A sample taken just as a function is entered or left can be off by that one frame, which averages
+ * out over thousands of samples.
+ */
+class Profiler {
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Set<Interpreter> interpreters = Collections.synchronizedSet(
+        Collections.newSetFromMap(new WeakHashMap<>()));  // Weak, so finished tasks drop out
+    private final Map<String, Long> stacks = new TreeMap<>();  // Only touched by the sampling thread until it stops
+    private final Thread thread;
+    private volatile boolean stopped = false;
+
+    Profiler() {
+        thread = new Thread(this::sampleUntilStopped, "lox-profiler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void register(Interpreter interpreter) {
+        interpreters.add(interpreter);
+    }
+
+    void stop() {
+        stopped = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Call stop() first
+    void write(Path path) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+            stacks.forEach((stack, count) -> out.println(stack + " " + count));
+        }
+    }
+
+    private void sampleUntilStopped() {
+        while (!stopped) {
+            LockSupport.parkNanos(INTERVAL);
+            if (stopped) break;
+
+            List<Interpreter> running;
+            synchronized (interpreters) {
+                running = new ArrayList<>(interpreters);
+            }
+            for (Interpreter interpreter : running) {
+                String stack = collapse(interpreter);
+                if (stack != null) stacks.merge(stack, 1L, Long::sum);
+            }
+        }
+    }
+
+    // The interpreter's stack as "outer;...;inner", or null if it isn't running anything
+    private static String collapse(Interpreter interpreter) {
+        Stmt.Function[] frames = interpreter.frames;  // Read the array before the depth, it only ever grows
+        int depth = Math.min(interpreter.depth, frames.length);
+        if (depth == 0) return null;
+
+        StringBuilder stack = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            if (i > 0) stack.append(';');
+
+            Stmt.Function function = frames[i];
+            if (function == null) {
+                stack.append("<script>");
+            } else {
+                stack.append(function.name.lexeme).append(':').append(function.name.line);
+            }
+        }
+        return stack.toString();
+    }
+}
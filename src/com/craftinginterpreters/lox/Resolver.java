@@ -16,7 +16,8 @@ import java.util.Stack;
 // *Runtime* analysis should still be done in Interpreter
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
+    private final Map<Expr, Integer> locals;  // Where resolved distances go, normally the interpreter's
+    private final ErrorReporter reporter;
     // Used to help determine steps between expr and declaration. Each element in the stack represents
     // a new block scope. Global scope isn't tracked by this stack because lox global scope is more
     // dynamic. If we can't find a variable in the scopes stack, we assume it's global
@@ -40,8 +41,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
     private ClassType currentClass = ClassType.NONE;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver(Map<Expr, Integer> locals, ErrorReporter reporter) {
+        this.locals = locals;
+        this.reporter = reporter;
     }
 
     void resolve(List<Stmt> statements) {
@@ -72,7 +74,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         Map<String, Boolean> scope = scopes.peek();
 
         if (scope.containsKey(name.lexeme)) {  // Prevent intra block declaration shadowing
-            Lox.error(name, "Variable with this name already declared in this scope");
+            reporter.error(name, "Variable with this name already declared in this scope");
         }
 
         scope.put(name.lexeme, false);
@@ -88,7 +90,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void resolveLocal(Expr expr, Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
             if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
+                locals.put(expr, scopes.size() - 1 - i);
                 return;
             }
         }
@@ -125,7 +127,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         define(stmt.name);
 
         if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-            Lox.error(stmt.superclass.name, "A class cannot inherit from itself");
+            reporter.error(stmt.superclass.name, "A class cannot inherit from itself");
         }
 
         if (stmt.superclass != null) {
@@ -187,7 +189,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         // have to be initialized (either explicitly or with nil), this will only happen if a user attempts to use a
         // variable in its own initializer
         if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name, "Cannot read local variable in its own initializer");
+            reporter.error(expr.name, "Cannot read local variable in its own initializer");
         }
 
         resolveLocal(expr, expr.name);
@@ -231,12 +233,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Cannot return from top level code.");
+            reporter.error(stmt.keyword, "Cannot return from top level code.");
         }
 
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword, "Cannot return a value from an initializer.");
+                reporter.error(stmt.keyword, "Cannot return a value from an initializer.");
             }
             resolve(stmt.value);
         }
@@ -296,9 +298,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Cannot use 'super' outside of a class.");
+            reporter.error(expr.keyword, "Cannot use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Cannot use 'super' in a class with no superclass.");
+            reporter.error(expr.keyword, "Cannot use 'super' in a class with no superclass.");
         }
 
         resolveLocal(expr, expr.keyword);
@@ -308,7 +310,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Cannot use 'this' outside of a class");
+            reporter.error(expr.keyword, "Cannot use 'this' outside of a class");
             return null;
         }
 
@@ -1,7 +1,7 @@
 package com.craftinginterpreters.lox;
 
 class RuntimeError extends RuntimeException {
-	final Token token;
+	final Token token;  // null when thrown by a native, visitCallExpr fills in the call site
 	
 	RuntimeError(Token token, String message) {
 		super(message);
@@ -1,9 +1,7 @@
 package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
@@ -16,14 +14,30 @@ import static com.craftinginterpreters.lox.TokenType.*;
 
 class Scanner {
 	private final String source;
+	private final int end;
 	private final List<Token> tokens = new ArrayList<>();
 	
 	private int start = 0;
 	private int current = 0;
 	private int line = 1;
 	
-	Scanner(String source) {
+	private final ErrorReporter reporter;
+	
+	// Every occurrence of the same identifier shares one String
+	private final IdentifierTable identifiers = new IdentifierTable();
+	
+	Scanner(String source, ErrorReporter reporter) {
+		this(source, 0, source.length(), 1, reporter);
+	}
+	
+	// Scan only source[start, end), numbering lines from line. Used to re-scan or split up part of a
+	// file without copying it out into a new string first
+	Scanner(String source, int start, int end, int line, ErrorReporter reporter) {
 		this.source = source;
+		this.end = end;
+		this.current = start;
+		this.line = line;
+		this.reporter = reporter;
 	}
 	
 	// Scans tokens from source file one by one until all tokens are scanned. Adds an EOF token at the end
@@ -40,7 +54,7 @@ class Scanner {
 	
 	// Are we at the end of the source file?
 	private boolean isAtEnd() {
-		return current >= source.length();
+		return current >= end;
 	}
 	
 	// Scan and identify the next token
@@ -90,7 +104,7 @@ class Scanner {
 	        	} else if (isAlpha(c)) {
 	        		identifier();
 	        	} else {
-		        	Lox.error(line, "Unexpected character.");
+		        	reporter.error(line, "Unexpected character.");
 		        	break;
 	        	}
 		}
@@ -101,9 +115,12 @@ class Scanner {
 		return source.charAt(current++);
 	}
 	
-	// Add a token of type type
+	// Add a token of type type. Punctuation and keywords always have the same text, so those use the
+	// constant instead of cutting a new string out of the source every time
 	private void addToken(TokenType type) {
-		addToken(type, null);
+		String text = fixedLexemes[type.ordinal()];
+		if (text == null) text = source.substring(start, current);
+		tokens.add(new Token(type, text, null, line));
 	}
 	
 	// Add a token of type type with actual value literal
@@ -128,7 +145,7 @@ class Scanner {
 	
 	// Return the next char after the current char without consuming it from stream
 	private char peekNext() {
-		if (current + 1 >= source.length()) return '\0';
+		if (current + 1 >= end) return '\0';
 		return source.charAt(current + 1);
 	}
 	
@@ -142,7 +159,7 @@ class Scanner {
 		
 		// Untermined string
 		if (isAtEnd()) {
-			Lox.error(line, "Unterminated String");
+			reporter.error(line, "Unterminated String");
 			return;
 		}
 		
@@ -170,19 +187,67 @@ class Scanner {
 			while (isDigit(peek())) advance();
 		}
 		
-		addToken(NUMBER,
-				Double.parseDouble(source.substring(start, current)));
+		String text = source.substring(start, current);
+		tokens.add(new Token(NUMBER, text, Double.parseDouble(text), line));
 	}
 	
 	private void identifier() {
 		while (isAlphaNumeric(peek())) advance();
 		
-		// See if the identifier is a reserved word.   
-	    String text = source.substring(start, current);
-
-	    TokenType type = keywords.get(text);           
-	    if (type == null) type = IDENTIFIER;           
-	    addToken(type);
+		// See if the identifier is a reserved word, straight from the source chars
+	    TokenType type = identifierType();
+	    if (type != IDENTIFIER) {
+	    	addToken(type);
+	    	return;
+	    }
+	    
+	    tokens.add(new Token(IDENTIFIER, identifiers.intern(source, start, current), null, line));
+	}
+	
+	// A hand-rolled trie over the keywords, same as clox: switch on the first letter (and the second,
+	// where several keywords share the first) and then compare the rest of the word
+	private TokenType identifierType() {
+		switch (source.charAt(start)) {
+			case 'a': return checkKeyword(1, "nd", AND);
+			case 'c': return checkKeyword(1, "lass", CLASS);
+			case 'e': return checkKeyword(1, "lse", ELSE);
+			case 'f':
+				if (current - start > 1) {
+					switch (source.charAt(start + 1)) {
+						case 'a': return checkKeyword(2, "lse", FALSE);
+						case 'o': return checkKeyword(2, "r", FOR);
+						case 'u': return checkKeyword(2, "n", FUN);
+					}
+				}
+				break;
+			case 'i': return checkKeyword(1, "f", IF);
+			case 'n': return checkKeyword(1, "il", NIL);
+			case 'o': return checkKeyword(1, "r", OR);
+			case 'p': return checkKeyword(1, "rint", PRINT);
+			case 'r': return checkKeyword(1, "eturn", RETURN);
+			case 's': return checkKeyword(1, "uper", SUPER);
+			case 't':
+				if (current - start > 1) {
+					switch (source.charAt(start + 1)) {
+						case 'h': return checkKeyword(2, "is", THIS);
+						case 'r': return checkKeyword(2, "ue", TRUE);
+					}
+				}
+				break;
+			case 'v': return checkKeyword(1, "ar", VAR);
+			case 'w': return checkKeyword(1, "hile", WHILE);
+		}
+		
+		return IDENTIFIER;
+	}
+	
+	private TokenType checkKeyword(int offset, String rest, TokenType type) {
+		if (current - start == offset + rest.length() &&
+				source.regionMatches(start + offset, rest, 0, rest.length())) {
+			return type;
+		}
+		
+		return IDENTIFIER;
 	}
 	
 	private boolean isAlpha(char c) {
@@ -195,25 +260,72 @@ class Scanner {
 		return isAlpha(c) || isDigit(c);
 	}
 	
-	private static final Map<String, TokenType> keywords;
+	private static final String[] fixedLexemes = new String[TokenType.values().length];
 	
 	static {
-		keywords = new HashMap<>();
-		keywords.put("and", AND);
-		keywords.put("class", CLASS);
-		keywords.put("else", ELSE);
-		keywords.put("false", FALSE);
-		keywords.put("for",    FOR);                       
-	    keywords.put("fun",    FUN);                       
-	    keywords.put("if",     IF);                        
-	    keywords.put("nil",    NIL);                       
-	    keywords.put("or",     OR);                        
-	    keywords.put("print",  PRINT);                     
-	    keywords.put("return", RETURN);                    
-	    keywords.put("super",  SUPER);                     
-	    keywords.put("this",   THIS);                      
-	    keywords.put("true",   TRUE);                      
-	    keywords.put("var",    VAR);                       
-	    keywords.put("while",  WHILE);
+		String[][] lexemes = {
+			{"LEFT_PAREN", "("}, {"RIGHT_PAREN", ")"}, {"LEFT_BRACE", "{"}, {"RIGHT_BRACE", "}"},
+			{"COMMA", ","}, {"DOT", "."}, {"MINUS", "-"}, {"PLUS", "+"}, {"SEMICOLON", ";"},
+			{"SLASH", "/"}, {"STAR", "*"},
+			{"BANG", "!"}, {"BANG_EQUAL", "!="}, {"EQUAL", "="}, {"EQUAL_EQUAL", "=="},
+			{"GREATER", ">"}, {"GREATER_EQUAL", ">="}, {"LESS", "<"}, {"LESS_EQUAL", "<="},
+		};
+		for (String[] lexeme : lexemes) {
+			fixedLexemes[TokenType.valueOf(lexeme[0]).ordinal()] = lexeme[1];
+		}
+		
+		// Keywords are spelled like their token type
+		TokenType[] keywords = {
+			AND, CLASS, ELSE, FALSE, FOR, FUN, IF, NIL, OR, PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE
+		};
+		for (TokenType keyword : keywords) {
+			fixedLexemes[keyword.ordinal()] = keyword.name().toLowerCase();
+		}
+	}
+	
+	// Open addressing hash set of identifier strings that can be probed with a slice of the source, so
+	// a string only gets allocated the first time a name shows up. The hash is the same one String uses
+	private static class IdentifierTable {
+		private String[] entries = new String[256];
+		private int count = 0;
+		
+		String intern(String source, int start, int end) {
+			int hash = 0;
+			for (int i = start; i < end; i++) {
+				hash = 31 * hash + source.charAt(i);
+			}
+			
+			int length = end - start;
+			int mask = entries.length - 1;
+			for (int index = hash & mask; ; index = (index + 1) & mask) {
+				String entry = entries[index];
+				if (entry == null) break;
+				if (entry.length() == length && entry.hashCode() == hash &&
+						source.regionMatches(start, entry, 0, length)) {
+					return entry;
+				}
+			}
+			
+			String name = source.substring(start, end);
+			add(name);
+			return name;
+		}
+		
+		private void add(String name) {
+			if ((count + 1) * 2 > entries.length) {  // Keep it at most half full so probes stay short
+				String[] old = entries;
+				entries = new String[old.length * 2];
+				count = 0;
+				for (String entry : old) {
+					if (entry != null) add(entry);
+				}
+			}
+			
+			int mask = entries.length - 1;
+			int index = name.hashCode() & mask;
+			while (entries[index] != null) index = (index + 1) & mask;
+			entries[index] = name;
+			count++;
+		}
 	}
 }
@@ -0,0 +1,114 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Keeps the scanned, parsed and resolved form of a script in a .loxc file next to it (foo.lox -> foo.loxc)
+// so running an unchanged script again skips the whole front end. The file starts with a hash of the
+// source it was built from, so editing the script just makes the old cache file stale and it gets
+// rewritten on the next run. Anything going wrong with the cache file is treated as a miss
+class ScriptCache {
+    private static final int MAGIC = 0x4c4f5843;  // "LOXC"
+    private static final int VERSION = 2;  // Bump whenever the AST classes, TokenType or AstSerializer change
+
+    private final Path cachePath;
+    private final byte[] hash;
+
+    ScriptCache(Path scriptPath, byte[] source, Charset charset) {
+        this.cachePath = scriptPath.resolveSibling(scriptPath.getFileName() + "c");
+        this.hash = hash(source, charset);
+    }
+
+    static byte[] hash(byte[] source, Charset charset) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(charset.name().getBytes(StandardCharsets.UTF_8));  // Same bytes decode differently under another charset
+            return digest.digest(source);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JVM has to ship SHA-256", e);
+        }
+    }
+
+    // Returns the cached statements and fills in locals with their resolved scope distances, or null if
+    // there's no usable cache for this exact source
+    List<Stmt> load(Map<Expr, Integer> locals) {
+        if (!Files.isRegularFile(cachePath)) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cachePath)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+
+            byte[] cachedHash = new byte[hash.length];
+            in.readFully(cachedHash);
+            if (!Arrays.equals(hash, cachedHash)) return null;
+
+            // Read into a scratch map so a truncated file can't leave half a program's worth of entries behind
+            Map<Expr, Integer> resolved = new HashMap<>();
+            List<Stmt> statements = new AstSerializer.Reader(in, resolved).readStatements();
+            locals.putAll(resolved);
+            return statements;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Only call this with a program that got through the parser and resolver without errors
+    void store(List<Stmt> statements, Map<Expr, Integer> locals) {
+        Path temp = null;
+        try {
+            // Write to a temp file and move it into place so a concurrent run never sees a half written cache
+            temp = tempFileFor(cachePath);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(hash);
+                new AstSerializer.Writer(out, locals).writeStatements(statements);
+            }
+
+            try {
+                Files.move(temp, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, cachePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Read-only directory, full disk, etc. The script still runs, it just won't be cached
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    // A new empty file next to target, to write it out in before moving it into place. Files.createTempFile()
+    // would always make it 0600, so another user running the same script would never be able to read its
+    // cache. This one gets whatever the umask gives any new file, same as if it had been written directly
+    static Path tempFileFor(Path target) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        for (;;) {
+            String suffix = Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36);
+            try {
+                return Files.createFile(directory.resolve(target.getFileName() + "." + suffix + ".tmp"));
+            } catch (FileAlreadyExistsException e) {
+                // Another run picked the same name. Pick again
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.craftinginterpreters.lox;
+
+/*
+ * A much cheaper pass than the Scanner that only finds where top-level statements end, so a file can be
+ * cut into pieces that scan and parse on their own. It only cares about the few characters that decide
+ * that: braces and parens (for nesting depth), semicolons, and quotes and comments (so braces inside
+ * them don't count).
+ *
+ * A statement ends after a ';' or '}' that isn't nested in anything, unless the next word is "else",
+ * since that still belongs to the if before it. Each piece runs from the end of the previous one, so the
+ * whitespace and comments between statements belong to the statement after them. In broken code an
+ * unclosed brace, paren or string just makes the rest of the file one piece, which is what the parser
+ * would see anyway.
+ */
+class SourceSplitter {
+    private final String source;
+    private final int end;
+    private int current;
+    private int line;
+
+    SourceSplitter(String source, int start, int end, int line) {
+        this.source = source;
+        this.end = end;
+        this.current = start;
+        this.line = line;
+    }
+
+    boolean isAtEnd() {
+        return current >= end;
+    }
+
+    // Offset and line the next piece starts at
+    int position() {
+        return current;
+    }
+
+    int line() {
+        return line;
+    }
+
+    // Skip past the next top-level statement and return the offset just after it
+    int next() {
+        int depth = 0;
+        int parens = 0;
+
+        while (current < end) {
+            char c = source.charAt(current++);
+            switch (c) {
+                case '\n': line++; break;
+                case '"': skipString(); break;
+                case '/':
+                    if (current < end && source.charAt(current) == '/') skipComment();
+                    break;
+                case '(': parens++; break;
+                case ')': if (parens > 0) parens--; break;
+                case '{': depth++; break;
+                case '}':
+                    if (depth > 0) depth--;
+                    if (depth == 0 && parens == 0 && !elseFollows()) return current;
+                    break;
+                case ';':
+                    if (depth == 0 && parens == 0 && !elseFollows()) return current;
+                    break;
+            }
+        }
+
+        return current;
+    }
+
+    private void skipString() {
+        while (current < end) {
+            char c = source.charAt(current++);
+            if (c == '"') return;
+            if (c == '\n') line++;
+        }
+    }
+
+    // Leaves the newline for next() to count
+    private void skipComment() {
+        while (current < end && source.charAt(current) != '\n') current++;
+    }
+
+    // Look ahead (without moving) past whitespace and comments for an "else" keyword
+    private boolean elseFollows() {
+        int i = skipTrivia(source, current, end);
+        if (!source.startsWith("else", i) || i + 4 > end) return false;
+        return i + 4 == end || !isAlphaNumeric(source.charAt(i + 4));
+    }
+
+    // Offset of the first character from start on that isn't whitespace or in a comment, or end if
+    // there isn't one
+    static int skipTrivia(String source, int start, int end) {
+        int i = start;
+        while (i < end) {
+            char c = source.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                i++;
+            } else if (c == '/' && i + 1 < end && source.charAt(i + 1) == '/') {
+                while (i < end && source.charAt(i) != '\n') i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    // Offset just past the first word from start on, after any whitespace and comments. Whether a piece
+    // starting at start glues onto the one before it (by starting with "else") depends on nothing after it
+    static int firstWordEnd(String source, int start, int end) {
+        int i = skipTrivia(source, start, end);
+        while (i < end && isAlphaNumeric(source.charAt(i))) i++;
+        return i;
+    }
+
+    private static boolean isAlphaNumeric(char c) {
+        return (c >= 'a' && c <= 'z') ||
+               (c >= 'A' && c <= 'Z') ||
+               (c >= '0' && c <= '9') ||
+               c == '_';
+    }
+}
@@ -130,7 +130,8 @@ abstract class Stmt {
     }
 
     static class While extends Stmt {
-        While(Expr condition, Stmt body) {
+        While(Token keyword, Expr condition, Stmt body) {
+            this.keyword = keyword;
             this.condition = condition;
             this.body = body;
         }
@@ -139,6 +140,7 @@ abstract class Stmt {
             return visitor.visitWhileStmt(this);
         }
 
+        final Token keyword;
         final Expr condition;
         final Stmt body;
     }
@@ -0,0 +1,135 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The tracing tier's compiler (lox --trace, see OptimizingTier). Where the ClosureCompiler compiles a
+ * function or a loop as written, this compiles a hot loop along the path one iteration of it actually
+ * took, as a TraceRecorder saw it:
+ *
+ *   - An if compiles to a guard on its condition followed by just the branch that was taken. When the
+ *     condition goes the other way, the trace takes a side exit: the other branch runs in the interpreter,
+ *     and the trace carries on after the if as usual. A side exit taken BRIDGE_THRESHOLD times is a path
+ *     the loop takes too, and from then on runs the other branch compiled instead (a bridge).
+ *   - A call that called a function compiles the function's body along the path it took on that call,
+ *     as part of the trace. The call site runs that copy instead of the function's own compiled code, as
+ *     long as it's calling the same function again, so what the function does there is traced just like
+ *     the loop. A method read through a property counts too, whichever instance it's bound to. Anything
+ *     else the site calls gets an ordinary call. Calls inline to MAX_INLINE_DEPTH deep, and a recursive
+ *     call isn't inlined into itself.
+ *
+ * Everything the iteration didn't run compiles the way the ClosureCompiler would, and so does every node
+ * that doesn't depend on the path, so the trace is never wrong, only slower when it's not the usual path.
+ *
+ * A real tracing JIT would emit the trace as straight-line bytecode. This tree has no bytecode library, so
+ * the trace is closure nodes like the rest of the optimizing tier's code, with the guards in between.
+ */
+class TraceCompiler extends ClosureCompiler {
+    static final int MAX_INLINE_DEPTH = 4;
+    static final int BRIDGE_THRESHOLD = 100;
+
+    private final TraceRecorder trace;
+    private final List<Stmt.Function> inlining = new ArrayList<>();  // Functions being compiled into the trace
+
+    TraceCompiler(Map<Expr, Integer> locals, TypeProfile profile, TraceRecorder trace) {
+        super(locals, profile);
+        this.trace = trace;
+    }
+
+    @Override
+    StmtNode statement(Stmt stmt) {
+        if (stmt instanceof Stmt.If && trace.branches.containsKey(stmt)) {
+            int leftOut = handOver();
+            if (leftOut >= 0) {  // Otherwise there's no exiting from here, see ClosureCompiler
+                Stmt.If ifStmt = (Stmt.If)stmt;
+                boolean taken = trace.branches.get(ifStmt);
+                Stmt path = taken ? ifStmt.thenBranch : ifStmt.elseBranch;
+                Stmt exit = taken ? ifStmt.elseBranch : ifStmt.thenBranch;
+                return new Guard(expression(ifStmt.condition), taken, path == null ? null : statement(path),
+                    exit, exit == null ? null : statement(exit), leftOut);
+            }
+        }
+        return super.statement(stmt);
+    }
+
+    @Override
+    ExprNode expression(Expr expr) {
+        if (expr instanceof Expr.Call) {
+            Object callee = trace.callees.get(expr);
+            if (callee instanceof LoxFunction) {
+                Stmt.Function declaration = ((LoxFunction)callee).declaration;
+                if (inlining.size() < MAX_INLINE_DEPTH && !inlining.contains(declaration)) {
+                    return inline((Expr.Call)expr, declaration);
+                }
+            }
+        }
+        return super.expression(expr);
+    }
+
+    private ExprNode inline(Expr.Call call, Stmt.Function declaration) {
+        ExprNode callee = expression(call.callee);
+        ExprNode[] arguments = expressions(call.arguments);
+
+        // The body is compiled against the function's own environment, not the blocks around the call
+        List<Boolean> outer = new ArrayList<>(scopes);
+        scopes.clear();
+        inlining.add(declaration);
+        CompiledFunction body = new CompiledFunction(declaration, statements(declaration.body), code);
+        inlining.remove(inlining.size() - 1);
+        scopes.addAll(outer);
+
+        return new InlinedCall(call, callee, arguments, body);
+    }
+
+    // An if that the trace only follows one way
+    private static final class Guard extends StmtNode {
+        private final ExprNode condition;
+        private final boolean taken;
+        private final StmtNode path;
+        private final Stmt exit;  // The branch that wasn't taken, null if there isn't one
+        private final StmtNode bridge;  // The same, compiled
+        private final int leftOut;
+        private int exits = 0;
+
+        Guard(ExprNode condition, boolean taken, StmtNode path, Stmt exit, StmtNode bridge, int leftOut) {
+            this.condition = condition;
+            this.taken = taken;
+            this.path = path;
+            this.exit = exit;
+            this.bridge = bridge;
+            this.leftOut = leftOut;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter, Environment environment) {
+            interpreter.statementCount++;
+            if (condition.evaluateCondition(interpreter, environment) == taken) {
+                return path == null ? NORMAL : path.execute(interpreter, environment);
+            }
+
+            if (exit == null) return NORMAL;
+            if (exits >= BRIDGE_THRESHOLD) return bridge.execute(interpreter, environment);
+            exits++;
+            return handOver(interpreter, Collections.singletonList(exit), environment, leftOut);
+        }
+    }
+
+    // A call that runs the body the trace compiled for it, as long as it's calling the same function
+    private static final class InlinedCall extends Call {
+        private final CompiledFunction body;
+
+        InlinedCall(Expr.Call expr, ExprNode callee, ExprNode[] arguments, CompiledFunction body) {
+            super(expr, callee, arguments, null);
+            this.body = body;
+        }
+
+        @Override
+        Object call(Interpreter interpreter, LoxFunction function, List<Object> values) {
+            if (function.declaration != body.declaration) return super.call(interpreter, function, values);
+            return function.call(interpreter, values, body);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/*
+ * Runs one iteration of a hot loop for the tracing tier and writes down the path it took, for the
+ * TraceCompiler: which way every if went, and what every call site called. Called functions are run here
+ * too, even ones that have compiled code, so the path goes on through them. So do loops inside the one
+ * being recorded, which would otherwise switch to compiled code of their own.
+ *
+ * The iteration is a real one, run over the same globals and environments as the interpreter that was
+ * running the loop, with all its effects. Like InstrumentingInterpreter it only overrides methods the
+ * nodes it cares about go through, and only the first time a node runs counts: a node that runs again
+ * later in the iteration (in an inner loop, or a function called twice) is compiled for the first path.
+ */
+class TraceRecorder extends Interpreter {
+    final Map<Stmt.If, Boolean> branches = new IdentityHashMap<>();  // Whether it took the then branch
+    final Map<Expr.Call, Object> callees = new IdentityHashMap<>();  // What the callee evaluated to
+
+    private Expr.Call callSite = null;  // Innermost call being evaluated
+
+    TraceRecorder(Interpreter parent) {
+        super(parent);
+    }
+
+    // Run loop's body once in environment. Returns what resume() does
+    Object record(Stmt.While loop, Environment environment) {
+        try {
+            return resume(Collections.singletonList(loop.body), environment);
+        } finally {
+            flushMetrics();
+        }
+    }
+
+    @Override
+    CompiledFunction compiled(Stmt.Function function) {
+        return null;
+    }
+
+    @Override
+    Object evaluate(Expr expr) {
+        Expr.Call outer = callSite;
+        if (expr instanceof Expr.Call) callSite = (Expr.Call)expr;
+
+        Object value;
+        try {
+            value = super.evaluate(expr);
+        } finally {
+            callSite = outer;
+        }
+
+        if (outer != null && expr == outer.callee && !callees.containsKey(outer)) callees.put(outer, value);
+        return value;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        boolean taken = isTruthy(evaluate(stmt.condition));
+        if (!branches.containsKey(stmt)) branches.put(stmt, taken);
+
+        if (taken) {
+            execute(stmt.thenBranch);
+        } else if (stmt.elseBranch != null) {
+            execute(stmt.elseBranch);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        while (isTruthy(evaluate(stmt.condition))) {
+            execute(stmt.body);
+            if (--fuel < 0) refuel(stmt.keyword);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,237 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// What the optimizing tier learned about a script: which functions and loops got hot enough to compile, and what
+// each specializing node settled on (see ClosureCompiler.Site). Saved in a .loxp file next to the script
+// (foo.lox -> foo.loxp) when lox --optimize exits, so the next run compiles those functions on their first
+// call (and those loops on their first iteration) and starts the nodes out specialized instead of warming
+// up all over again.
+//
+// Nodes are saved by their position in a walk of the whole program, which only means anything for the
+// exact same source, so the file starts with its hash like a ScriptCache file does. Anything going wrong
+// with the file just means starting without a profile
+class TypeProfile {
+    private static final int MAGIC = 0x4c4f5850;  // "LOXP"
+    private static final int VERSION = 1;  // Bump whenever the walk in nodes() or what a node saves changes
+
+    private static final byte STATE = 0;
+    private static final byte NAME = 1;
+    private static final byte NODE = 2;
+
+    private final Set<Stmt> hot = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<Object, Object> feedback = new IdentityHashMap<>();  // Node to ClosureCompiler.Site.feedback()
+
+    static Path pathFor(Path scriptPath) {
+        return scriptPath.resolveSibling(scriptPath.getFileName() + "p");
+    }
+
+    // A Stmt.Function or Stmt.While
+    boolean isHot(Stmt code) {
+        return hot.contains(code);
+    }
+
+    // What the node settled on last time, or null
+    Object feedback(Object node) {
+        return feedback.get(node);
+    }
+
+    void hot(Stmt code) {
+        hot.add(code);
+    }
+
+    void record(Object node, Object value) {
+        feedback.put(node, value);
+    }
+
+    // Fills this in from the profile at path, if there's a usable one for this exact source. Returns
+    // whether there was
+    boolean load(Path path, byte[] hash, List<Stmt> program) {
+        if (!Files.isRegularFile(path)) return false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return false;
+
+            byte[] savedHash = new byte[hash.length];
+            in.readFully(savedHash);
+            if (!Arrays.equals(hash, savedHash)) return false;
+
+            // Read into scratch collections so a truncated file can't leave half a profile behind
+            List<Object> nodes = nodes(program);
+            List<Stmt> code = new ArrayList<>();
+            for (int count = in.readInt(); count > 0; count--) {
+                code.add((Stmt)nodes.get(in.readInt()));
+            }
+
+            Map<Object, Object> values = new IdentityHashMap<>();
+            for (int count = in.readInt(); count > 0; count--) {
+                Object node = nodes.get(in.readInt());
+                byte tag = in.readByte();
+                if (tag == STATE) {
+                    values.put(node, in.readInt());
+                } else if (tag == NAME) {
+                    String name = in.readUTF();
+                    values.put(node, name.equals(ClosureCompiler.POLYMORPHIC) ? ClosureCompiler.POLYMORPHIC : name);
+                } else if (tag == NODE) {
+                    values.put(node, (Stmt.Function)nodes.get(in.readInt()));
+                } else {
+                    return false;
+                }
+            }
+
+            hot.addAll(code);
+            feedback.putAll(values);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    void store(Path path, byte[] hash, List<Stmt> program) {
+        Map<Object, Integer> positions = new IdentityHashMap<>();
+        List<Object> nodes = nodes(program);
+        for (int i = 0; i < nodes.size(); i++) {
+            positions.put(nodes.get(i), i);
+        }
+
+        Path temp = null;
+        try {
+            // Same as ScriptCache.store(), so a concurrent run never reads half a profile
+            temp = ScriptCache.tempFileFor(path);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(hash);
+
+                List<Integer> code = new ArrayList<>();
+                for (Stmt stmt : hot) {
+                    Integer position = positions.get(stmt);
+                    if (position != null) code.add(position);  // Functions from other code (the REPL, an image) don't belong here
+                }
+                out.writeInt(code.size());
+                for (int position : code) {
+                    out.writeInt(position);
+                }
+
+                List<Map.Entry<Object, Object>> sites = new ArrayList<>();
+                for (Map.Entry<Object, Object> entry : feedback.entrySet()) {
+                    Object value = entry.getValue();
+                    if (positions.containsKey(entry.getKey()) && (!(value instanceof Stmt.Function) || positions.containsKey(value))) {
+                        sites.add(entry);
+                    }
+                }
+                out.writeInt(sites.size());
+                for (Map.Entry<Object, Object> site : sites) {
+                    out.writeInt(positions.get(site.getKey()));
+                    Object value = site.getValue();
+                    if (value instanceof Integer) {
+                        out.writeByte(STATE);
+                        out.writeInt((int)value);
+                    } else if (value instanceof String) {
+                        out.writeByte(NAME);
+                        out.writeUTF((String)value);
+                    } else {
+                        out.writeByte(NODE);
+                        out.writeInt(positions.get(value));
+                    }
+                }
+            }
+
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            // The script already ran, the next run just has to warm up again
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    // Every Stmt and Expr in program, each before the nodes under it, in source order
+    private static List<Object> nodes(List<Stmt> program) {
+        List<Object> nodes = new ArrayList<>();
+        for (Stmt stmt : program) {
+            walk(stmt, nodes);
+        }
+        return nodes;
+    }
+
+    private static void walk(Stmt stmt, List<Object> nodes) {
+        if (stmt == null) return;
+        nodes.add(stmt);
+
+        if (stmt instanceof Stmt.Block) {
+            for (Stmt statement : ((Stmt.Block)stmt).statements) walk(statement, nodes);
+        } else if (stmt instanceof Stmt.Class) {
+            Stmt.Class klass = (Stmt.Class)stmt;
+            walk(klass.superclass, nodes);
+            for (Stmt.Function method : klass.methods) walk(method, nodes);
+        } else if (stmt instanceof Stmt.Expression) {
+            walk(((Stmt.Expression)stmt).expression, nodes);
+        } else if (stmt instanceof Stmt.Function) {
+            for (Stmt statement : ((Stmt.Function)stmt).body) walk(statement, nodes);
+        } else if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If)stmt;
+            walk(ifStmt.condition, nodes);
+            walk(ifStmt.thenBranch, nodes);
+            walk(ifStmt.elseBranch, nodes);
+        } else if (stmt instanceof Stmt.Print) {
+            walk(((Stmt.Print)stmt).expression, nodes);
+        } else if (stmt instanceof Stmt.Return) {
+            walk(((Stmt.Return)stmt).value, nodes);
+        } else if (stmt instanceof Stmt.Var) {
+            walk(((Stmt.Var)stmt).initializer, nodes);
+        } else if (stmt instanceof Stmt.While) {
+            walk(((Stmt.While)stmt).condition, nodes);
+            walk(((Stmt.While)stmt).body, nodes);
+        }
+    }
+
+    private static void walk(Expr expr, List<Object> nodes) {
+        if (expr == null) return;
+        nodes.add(expr);
+
+        if (expr instanceof Expr.Assign) {
+            walk(((Expr.Assign)expr).value, nodes);
+        } else if (expr instanceof Expr.Binary) {
+            walk(((Expr.Binary)expr).left, nodes);
+            walk(((Expr.Binary)expr).right, nodes);
+        } else if (expr instanceof Expr.Call) {
+            walk(((Expr.Call)expr).callee, nodes);
+            for (Expr argument : ((Expr.Call)expr).arguments) walk(argument, nodes);
+        } else if (expr instanceof Expr.Get) {
+            walk(((Expr.Get)expr).object, nodes);
+        } else if (expr instanceof Expr.Grouping) {
+            walk(((Expr.Grouping)expr).expression, nodes);
+        } else if (expr instanceof Expr.Logical) {
+            walk(((Expr.Logical)expr).left, nodes);
+            walk(((Expr.Logical)expr).right, nodes);
+        } else if (expr instanceof Expr.Set) {
+            walk(((Expr.Set)expr).object, nodes);
+            walk(((Expr.Set)expr).value, nodes);
+        } else if (expr instanceof Expr.Unary) {
+            walk(((Expr.Unary)expr).right, nodes);
+        }
+    }
+}
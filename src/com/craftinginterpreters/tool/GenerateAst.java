@@ -40,7 +40,7 @@ public class GenerateAst {
 			"Print		: Expr expression",
 			"Return		: Token keyword, Expr value",
 			"Var		: Token name, Expr initializer",
-			"While		: Expr condition, Stmt body"
+			"While		: Token keyword, Expr condition, Stmt body"
 	    ));	
 	}
 	